@@ -0,0 +1,654 @@
+package dev.jh.adventofcode;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles the assembly language shared by Day18 and Day23 into a single JVM method, so HotSpot can optimize
+ * the whole program as one unit.  Registers a-z become long locals, and jnz and jgz become real branches -
+ * jumps with a register offset go through a tableswitch over every line.  Each compiled program is defined
+ * in its own class loader, so the class can be unloaded once the program is no longer used.
+ *
+ * Supports set, add, sub, mul, mod, jnz, jgz, and the sound versions of snd and rcv.
+ */
+public class AssemblyCompiler {
+
+  /** Slot holding the frequency of the last sound played. */
+  public static final int PLAYED = 26;
+  /** Slot holding the frequency of the last sound recovered. */
+  public static final int RECOVERED = 27;
+  /** Number of slots in the array passed to a compiled program. */
+  public static final int NUM_SLOTS = 28;
+
+  /**
+   * A compiled program.
+   */
+  public interface Program {
+    /**
+     * Runs the program until it jumps outside of its instructions, or recovers a non-zero frequency.
+     *
+     * @param registers Registers a-z, then the played and recovered frequencies.  Read when the program
+     *                  starts, and updated when it stops.
+     * @return Program counter when the program stopped
+     */
+    int run(long[] registers);
+  }
+
+  private static final Pattern INSTRUCTION_PATTERN = Pattern.compile("^([a-z]{3}) ([a-z]|(?:-?\\d+)) ?([a-z]|(?:-?\\d+))?$");
+
+  private static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+  private static final String PROGRAM_INTERFACE = Program.class.getName().replace('.', '/');
+
+  private static final ImmutableSet<String> SUPPORTED = ImmutableSet.of(
+      "set", "add", "sub", "mul", "mod", "jnz", "jgz", "snd", "rcv");
+
+  /** Instructions whose X operand is the register they write to. */
+  private static final ImmutableSet<String> WRITES_X = ImmutableSet.of("set", "add", "sub", "mul", "mod");
+
+  /**
+   * Compiles the given program.
+   *
+   * @param lines Program to compile, one instruction per line
+   * @return Compiled program, or empty if the program uses an instruction this compiler doesn't support or is too
+   *     big for one method
+   * @throws IllegalStateException if the generated class can't be defined
+   */
+  public static Optional<Program> compile(ImmutableList<String> lines) {
+    Optional<ImmutableList<Line>> parsed = parse(lines);
+    if (!parsed.isPresent()) {
+      return Optional.empty();
+    }
+
+    String name = "dev/jh/adventofcode/CompiledAssembly" + CLASS_COUNTER.incrementAndGet();
+    Optional<byte[]> classFile = new ClassWriter(name).write(parsed.get());
+    if (!classFile.isPresent()) {
+      return Optional.empty();
+    }
+
+    try {
+      Class<?> programClass = new ProgramLoader(AssemblyCompiler.class.getClassLoader())
+          .define(name.replace('/', '.'), classFile.get());
+
+      return Optional.of((Program) programClass.getDeclaredConstructor().newInstance());
+    } catch (LinkageError | ReflectiveOperationException e) {
+      // parse and resolve already rejected everything the compiler can't handle, so this is a bug in the writer.
+      throw new IllegalStateException("Generated invalid class " + name, e);
+    }
+  }
+
+  /**
+   * Parses the program, checking that every line is an instruction the compiler supports with the operands it
+   * needs.
+   *
+   * @param lines Program to parse
+   * @return Parsed lines, or empty if the program can't be compiled
+   */
+  private static Optional<ImmutableList<Line>> parse(ImmutableList<String> lines) {
+    if (lines.size() >= Short.MAX_VALUE) {
+      return Optional.empty();
+    }
+
+    ImmutableList.Builder<Line> parsed = ImmutableList.builder();
+    for (String line : lines) {
+      Matcher matcher = INSTRUCTION_PATTERN.matcher(line);
+      if (!matcher.matches()) {
+        return Optional.empty();
+      }
+
+      String command = matcher.group(1);
+      Operand x = new Operand(matcher.group(2));
+      Operand y = matcher.group(3) == null ? null : new Operand(matcher.group(3));
+
+      boolean needsY = WRITES_X.contains(command) || command.equals("jnz") || command.equals("jgz");
+      if (!SUPPORTED.contains(command)
+          || (needsY && y == null)
+          || (WRITES_X.contains(command) && !x.isRegister)) {
+        return Optional.empty();
+      }
+
+      parsed.add(new Line(command, x, y));
+    }
+
+    return Optional.of(parsed.build());
+  }
+
+  private static class ProgramLoader extends ClassLoader {
+    ProgramLoader(ClassLoader parent) {
+      super(parent);
+    }
+
+    Class<?> define(String name, byte[] classFile) {
+      return defineClass(name, classFile, 0, classFile.length);
+    }
+  }
+
+  /**
+   * Parsed operand - a register index, or a constant.
+   */
+  private static class Operand {
+    final boolean isRegister;
+    final int register;
+    final long number;
+
+    Operand(String value) {
+      char first = value.charAt(0);
+      this.isRegister = first >= 'a' && first <= 'z';
+      this.register = isRegister ? first - 'a' : -1;
+      this.number = isRegister ? 0 : Long.parseLong(value);
+    }
+  }
+
+  /**
+   * Instruction that the compiler supports, with its operands checked.
+   */
+  private static class Line {
+    final String command;
+    final Operand x;
+    final Operand y;
+
+    Line(String command, Operand x, Operand y) {
+      this.command = command;
+      this.x = x;
+      this.y = y;
+    }
+  }
+
+  /**
+   * Writes a class file implementing Program.  Targets class file version 49, which the JVM verifies by
+   * type inference, so branches don't need stack map frames.
+   */
+  private static class ClassWriter {
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    // Locals in run(long[]): 0 is this, 1 is the register array, then a long (two slots) per register.
+    private static final int TEMP_LOCAL = 2 + 2 * NUM_SLOTS;
+    private static final int EXIT_LOCAL = TEMP_LOCAL + 2;
+    private static final int MAX_LOCALS = EXIT_LOCAL + 1;
+    private static final int MAX_STACK = 6;
+
+    private final String name;
+    private final ConstantPool pool = new ConstantPool();
+
+    ClassWriter(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Writes the class file, or returns empty if the program is too big to fit in one method.
+     */
+    Optional<byte[]> write(ImmutableList<Line> lines) {
+      int thisClass = pool.classRef(name);
+      int superClass = pool.classRef("java/lang/Object");
+      int programInterface = pool.classRef(PROGRAM_INTERFACE);
+      int objectInit = pool.methodRef("java/lang/Object", "<init>", "()V");
+      int initName = pool.utf8("<init>");
+      int initDescriptor = pool.utf8("()V");
+      int runName = pool.utf8("run");
+      int runDescriptor = pool.utf8("([J)I");
+      int codeName = pool.utf8("Code");
+
+      Code init = new Code(pool, 0);
+      init.op(0x2a); // aload_0
+      init.op(0xb7).u2(objectInit); // invokespecial Object.<init>
+      init.op(0xb1); // return
+
+      Code run = compileRun(lines);
+      if (!run.resolve()) {
+        return Optional.empty();
+      }
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49);
+        pool.writeTo(out);
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(programInterface);
+        out.writeShort(0); // fields
+        out.writeShort(2); // methods
+        writeMethod(out, initName, initDescriptor, codeName, init, 1, 1);
+        writeMethod(out, runName, runDescriptor, codeName, run, MAX_STACK, MAX_LOCALS);
+        out.writeShort(0); // attributes
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+
+      return Optional.of(bytes.toByteArray());
+    }
+
+    private static void writeMethod(
+        DataOutputStream out,
+        int name,
+        int descriptor,
+        int codeName,
+        Code code,
+        int maxStack,
+        int maxLocals
+    ) throws IOException {
+      byte[] bytecode = code.toByteArray();
+
+      out.writeShort(ACC_PUBLIC);
+      out.writeShort(name);
+      out.writeShort(descriptor);
+      out.writeShort(1);
+      out.writeShort(codeName);
+      out.writeInt(12 + bytecode.length);
+      out.writeShort(maxStack);
+      out.writeShort(maxLocals);
+      out.writeInt(bytecode.length);
+      out.write(bytecode);
+      out.writeShort(0); // exception table
+      out.writeShort(0); // attributes
+    }
+
+    /**
+     * Compiles run(long[]).  Line i of the program starts at label i, label n is the end of the program,
+     * and the epilogue label stores the registers back and returns the program counter in EXIT_LOCAL.
+     */
+    private Code compileRun(ImmutableList<Line> lines) {
+      int size = lines.size();
+      Code code = new Code(pool, size + 2);
+      int end = size;
+      int epilogue = size + 1;
+
+      for (int slot = 0; slot < NUM_SLOTS; slot ++) {
+        code.op(0x2b); // aload_1
+        code.pushInt(slot);
+        code.op(0x2f); // laload
+        code.op(0x37).u1(local(slot)); // lstore
+      }
+
+      // Jumps that leave the program, by target line
+      Map<Integer, Integer> exits = new HashMap<>();
+
+      for (int line = 0; line < size; line ++) {
+        code.mark(line);
+
+        Operand x = lines.get(line).x;
+        Operand y = lines.get(line).y;
+
+        switch (lines.get(line).command) {
+          case "set":
+            load(code, y);
+            store(code, x.register);
+            break;
+          case "add":
+            arithmetic(code, x, y, 0x61); // ladd
+            break;
+          case "sub":
+            arithmetic(code, x, y, 0x65); // lsub
+            break;
+          case "mul":
+            arithmetic(code, x, y, 0x69); // lmul
+            break;
+          case "mod":
+            // Mod by zero leaves the register unchanged.
+            load(code, y);
+            code.op(0x37).u1(TEMP_LOCAL); // lstore
+            code.op(0x16).u1(TEMP_LOCAL); // lload
+            code.op(0x09); // lconst_0
+            code.op(0x94); // lcmp
+            code.branch(0x99, line + 1); // ifeq
+            code.op(0x16).u1(local(x.register)); // lload
+            code.op(0x16).u1(TEMP_LOCAL); // lload
+            code.op(0x71); // lrem
+            store(code, x.register);
+            break;
+          case "jnz":
+            jump(code, line, size, x, y, 0x9a, 0x99, exits); // ifne, ifeq
+            break;
+          case "jgz":
+            jump(code, line, size, x, y, 0x9d, 0x9e, exits); // ifgt, ifle
+            break;
+          case "snd":
+            load(code, x);
+            store(code, PLAYED);
+            break;
+          case "rcv":
+            load(code, x);
+            code.op(0x09); // lconst_0
+            code.op(0x94); // lcmp
+            code.branch(0x99, line + 1); // ifeq
+            code.op(0x16).u1(local(PLAYED)); // lload
+            code.op(0x37).u1(local(RECOVERED)); // lstore
+            code.op(0x16).u1(local(RECOVERED)); // lload
+            code.op(0x09); // lconst_0
+            code.op(0x94); // lcmp
+            code.branch(0x99, line + 1); // ifeq
+            code.pushInt(line + 1);
+            code.op(0x36).u1(EXIT_LOCAL); // istore
+            code.branch(0xa7, epilogue); // goto
+            break;
+          default:
+            throw new IllegalStateException("Unsupported instruction " + lines.get(line).command);
+        }
+      }
+
+      code.mark(end);
+      code.pushInt(size);
+      code.op(0x36).u1(EXIT_LOCAL); // istore
+
+      code.mark(epilogue);
+      for (int slot = 0; slot < NUM_SLOTS; slot ++) {
+        code.op(0x2b); // aload_1
+        code.pushInt(slot);
+        code.op(0x16).u1(local(slot)); // lload
+        code.op(0x50); // lastore
+      }
+      code.op(0x15).u1(EXIT_LOCAL); // iload
+      code.op(0xac); // ireturn
+
+      for (Map.Entry<Integer, Integer> exit : exits.entrySet()) {
+        code.mark(exit.getValue());
+        code.pushInt(exit.getKey());
+        code.op(0x36).u1(EXIT_LOCAL); // istore
+        code.branch(0xa7, epilogue); // goto
+      }
+
+      return code;
+    }
+
+    private void arithmetic(Code code, Operand x, Operand y, int opcode) {
+      code.op(0x16).u1(local(x.register)); // lload
+      load(code, y);
+      code.op(opcode);
+      store(code, x.register);
+    }
+
+    /**
+     * Compiles a conditional jump.  Constant offsets branch straight to their line.  Register offsets
+     * compute the target line and dispatch through a tableswitch, leaving the program if it's out of range.
+     */
+    private void jump(
+        Code code,
+        int line,
+        int size,
+        Operand x,
+        Operand y,
+        int jumpIf,
+        int skipIf,
+        Map<Integer, Integer> exits
+    ) {
+      load(code, x);
+      code.op(0x09); // lconst_0
+      code.op(0x94); // lcmp
+
+      if (!y.isRegister) {
+        int target = (int) (line + y.number);
+        if (target >= 0 && target < size) {
+          code.branch(jumpIf, target);
+        } else {
+          code.branch(jumpIf, exits.computeIfAbsent(target, t -> code.newLabel()));
+        }
+        return;
+      }
+
+      code.branch(skipIf, line + 1);
+      code.op(0x16).u1(local(y.register)); // lload
+      code.op(0x88); // l2i
+      code.pushInt(line);
+      code.op(0x60); // iadd
+      code.op(0x59); // dup
+      code.op(0x36).u1(EXIT_LOCAL); // istore
+      code.tableswitch(size, size + 1);
+    }
+
+    private void load(Code code, Operand operand) {
+      if (operand.isRegister) {
+        code.op(0x16).u1(local(operand.register)); // lload
+      } else {
+        code.pushLong(operand.number);
+      }
+    }
+
+    private static void store(Code code, int slot) {
+      code.op(0x37).u1(local(slot)); // lstore
+    }
+
+    private static int local(int slot) {
+      return 2 + 2 * slot;
+    }
+  }
+
+  /**
+   * Bytecode for a single method, with labels that branches are patched to once every label is placed.
+   */
+  private static class Code {
+    private final ConstantPool pool;
+    private byte[] bytes = new byte[256];
+    private int length;
+    private final List<Integer> labels = new ArrayList<>();
+    /** Branches to patch: instruction position, offset position, label, and whether the offset is 4 bytes. */
+    private final List<int[]> fixups = new ArrayList<>();
+
+    Code(ConstantPool pool, int numLabels) {
+      this.pool = pool;
+      for (int i = 0; i < numLabels; i ++) {
+        labels.add(-1);
+      }
+    }
+
+    int newLabel() {
+      labels.add(-1);
+      return labels.size() - 1;
+    }
+
+    void mark(int label) {
+      labels.set(label, length);
+    }
+
+    Code op(int opcode) {
+      return u1(opcode);
+    }
+
+    Code u1(int value) {
+      if (length == bytes.length) {
+        byte[] newBytes = new byte[bytes.length * 2];
+        System.arraycopy(bytes, 0, newBytes, 0, length);
+        bytes = newBytes;
+      }
+
+      bytes[length++] = (byte) value;
+      return this;
+    }
+
+    Code u2(int value) {
+      return u1(value >> 8).u1(value);
+    }
+
+    Code u4(int value) {
+      return u2(value >> 16).u2(value);
+    }
+
+    void branch(int opcode, int label) {
+      fixups.add(new int[]{length, length + 1, label, 0});
+      op(opcode).u2(0);
+    }
+
+    /**
+     * Jumps to the label for the line on top of the stack, or to the given default label if it's outside
+     * of [0, size).
+     */
+    void tableswitch(int size, int defaultLabel) {
+      int position = length;
+      op(0xaa);
+      while (length % 4 != 0) {
+        u1(0);
+      }
+
+      fixups.add(new int[]{position, length, defaultLabel, 1});
+      u4(0);
+      u4(0);
+      u4(size - 1);
+      for (int label = 0; label < size; label ++) {
+        fixups.add(new int[]{position, length, label, 1});
+        u4(0);
+      }
+    }
+
+    void pushInt(int value) {
+      if (value >= -1 && value <= 5) {
+        op(0x03 + value); // iconst_<n>
+      } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+        op(0x10).u1(value); // bipush
+      } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+        op(0x11).u2(value); // sipush
+      } else {
+        op(0x13).u2(pool.intConstant(value)); // ldc_w
+      }
+    }
+
+    void pushLong(long value) {
+      if (value == 0 || value == 1) {
+        op(0x09 + (int) value); // lconst_<n>
+      } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+        pushInt((int) value);
+        op(0x85); // i2l
+      } else {
+        op(0x14).u2(pool.longConstant(value)); // ldc2_w
+      }
+    }
+
+    /**
+     * Patches every branch to its label.
+     *
+     * @return Whether the method fits in the 64KB limit and every two-byte branch offset fit
+     */
+    boolean resolve() {
+      if (length > 0xFFFF) {
+        return false;
+      }
+
+      for (int[] fixup : fixups) {
+        int target = labels.get(fixup[2]);
+        int offset = target - fixup[0];
+
+        if (fixup[3] == 1) {
+          bytes[fixup[1]] = (byte) (offset >> 24);
+          bytes[fixup[1] + 1] = (byte) (offset >> 16);
+          bytes[fixup[1] + 2] = (byte) (offset >> 8);
+          bytes[fixup[1] + 3] = (byte) offset;
+        } else {
+          if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+            return false;
+          }
+          bytes[fixup[1]] = (byte) (offset >> 8);
+          bytes[fixup[1] + 1] = (byte) offset;
+        }
+      }
+
+      return true;
+    }
+
+    byte[] toByteArray() {
+      byte[] result = new byte[length];
+      System.arraycopy(bytes, 0, result, 0, length);
+      return result;
+    }
+  }
+
+  /**
+   * Class file constant pool, reusing entries that have already been added.
+   */
+  private static class ConstantPool {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int count = 1;
+
+    int utf8(String value) {
+      return entry("utf8:" + value, 1, () -> {
+        out.writeByte(1);
+        out.writeUTF(value);
+      });
+    }
+
+    int classRef(String name) {
+      int nameIndex = utf8(name);
+      return entry("class:" + name, 1, () -> {
+        out.writeByte(7);
+        out.writeShort(nameIndex);
+      });
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+      int ownerIndex = classRef(owner);
+      int nameIndex = utf8(name);
+      int descriptorIndex = utf8(descriptor);
+      int nameAndType = entry("nameAndType:" + name + ':' + descriptor, 1, () -> {
+        out.writeByte(12);
+        out.writeShort(nameIndex);
+        out.writeShort(descriptorIndex);
+      });
+
+      return entry("method:" + owner + '.' + name + descriptor, 1, () -> {
+        out.writeByte(10);
+        out.writeShort(ownerIndex);
+        out.writeShort(nameAndType);
+      });
+    }
+
+    int intConstant(int value) {
+      return entry("int:" + value, 1, () -> {
+        out.writeByte(3);
+        out.writeInt(value);
+      });
+    }
+
+    int longConstant(long value) {
+      // Longs take up two constant pool entries.
+      return entry("long:" + value, 2, () -> {
+        out.writeByte(5);
+        out.writeLong(value);
+      });
+    }
+
+    private int entry(String key, int size, Entry entry) {
+      Integer index = entries.get(key);
+      if (index != null) {
+        return index;
+      }
+
+      try {
+        entry.write();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+
+      index = count;
+      count += size;
+      entries.put(key, index);
+      return index;
+    }
+
+    void writeTo(DataOutputStream classFile) throws IOException {
+      classFile.writeShort(count);
+      out.flush();
+      bytes.writeTo(classFile);
+    }
+
+    private interface Entry {
+      void write() throws IOException;
+    }
+  }
+}
@@ -4,24 +4,59 @@ import com.google.common.base.MoreObjects;
 
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Day17 {
 
+  /**
+   * Immutable circular buffer backed by two persistent treaps.  Each value gets an order label that increases with
+   * its position, and the sequence treap is keyed by label with subtree sizes, so indexed reads and insertions are
+   * O(log n).  The value treap is keyed by value and then label, so positionOf finds a value's label and ranks it
+   * in O(log n).  Buffers share structure with the buffer they were derived from.
+   *
+   * <p>New values are labelled halfway between their neighbours.  When two neighbours have no label left between
+   * them, the smallest aligned block of labels around the insertion that is sparse enough is spread back out,
+   * which keeps relabelling to O(log n) values per insertion on average.
+   */
   public static class Buffer {
+    private static final int LABEL_BITS = 62;
+    private static final long LABEL_LIMIT = 1L << LABEL_BITS;
+    /** Largest density of a relabelled block of 2^i labels is 1 / RELABEL_DENSITY^i. */
+    private static final double RELABEL_DENSITY = 1.4;
+
     public final int position;
-    public final int[] values;
+    /** Values keyed by label. */
+    private final TreapNode sequence;
+    /** Labels keyed by value, then label. */
+    private final TreapNode index;
 
     /**
      * Constructs a new buffer containing only the value '0'.
      */
     public Buffer() {
-      this.position = 0;
-      this.values = new int[]{0};
+      this(0, new int[]{0});
     }
 
     public Buffer(int position, int[] values) {
       this.position = position;
-      this.values = values;
+
+      long spacing = LABEL_LIMIT / (values.length + 1);
+      TreapNode sequence = null;
+      TreapNode index = null;
+      for (int i = 0; i < values.length; i ++) {
+        long label = (i + 1) * spacing;
+        sequence = TreapNode.insert(sequence, new TreapNode(label, values[i]));
+        index = TreapNode.insert(index, new TreapNode(values[i], label));
+      }
+
+      this.sequence = sequence;
+      this.index = index;
+    }
+
+    private Buffer(int position, TreapNode sequence, TreapNode index) {
+      this.position = position;
+      this.sequence = sequence;
+      this.index = index;
     }
 
     /**
@@ -34,7 +69,8 @@ public class Day17 {
     public Buffer step(int steps) {
       return new Buffer(
           modPosition(position + steps),
-          values
+          sequence,
+          index
       );
     }
 
@@ -46,17 +82,78 @@ public class Day17 {
      * @return Buffer with the value inserted after the current position, and the current position updated
      */
     public Buffer insertAfter(int value) {
-      int[] newValues = new int[values.length + 1];
-      System.arraycopy(values, 0, newValues, 0, position + 1);
-      newValues[position + 1] = value;
+      long before = TreapNode.select(sequence, position).first;
+      long after = position + 1 < size() ? TreapNode.select(sequence, position + 1).first : LABEL_LIMIT;
+
+      if (after - before > 1) {
+        long label = before + (after - before) / 2;
+
+        return new Buffer(
+            position + 1,
+            TreapNode.insert(sequence, new TreapNode(label, value)),
+            TreapNode.insert(index, new TreapNode(value, label))
+        );
+      }
+
+      return relabelAndInsert(before, value);
+    }
+
+    /**
+     * Inserts the value after the current position by spreading out the labels in the smallest aligned block around
+     * the current label that has room for them.
+     */
+    private Buffer relabelAndInsert(long before, int value) {
+      int bits = 1;
+      long blockStart;
+      int first;
+      int count;
+
+      while (true) {
+        blockStart = before & -(1L << bits);
+        first = TreapNode.rank(sequence, blockStart, Long.MIN_VALUE);
+        count = TreapNode.rank(sequence, blockStart + (1L << bits), Long.MIN_VALUE) - first + 1;
+
+        if (bits == LABEL_BITS || count <= (1L << bits) / Math.pow(RELABEL_DENSITY, bits)) {
+          break;
+        }
+
+        bits ++;
+      }
 
-      if (position < values.length - 1) {
-        System.arraycopy(values, position + 1, newValues, position + 2, values.length - position - 1);
+      if (count > (1L << bits)) {
+        throw new IllegalStateException("Buffer is too large to label");
+      }
+
+      TreapNode[] lower = TreapNode.split(sequence, blockStart, Long.MIN_VALUE);
+      TreapNode[] upper = TreapNode.split(lower[1], blockStart + (1L << bits), Long.MIN_VALUE);
+
+      long[] oldLabels = new long[count - 1];
+      long[] oldValues = new long[count - 1];
+      TreapNode.copy(upper[0], oldLabels, oldValues, 0);
+
+      long[] values = new long[count];
+      int inserted = position + 1 - first;
+      System.arraycopy(oldValues, 0, values, 0, inserted);
+      values[inserted] = value;
+      System.arraycopy(oldValues, inserted, values, inserted + 1, count - 1 - inserted);
+
+      TreapNode index = this.index;
+      for (int i = 0; i < oldLabels.length; i ++) {
+        index = TreapNode.delete(index, oldValues[i], oldLabels[i]);
+      }
+
+      long spacing = (1L << bits) / count;
+      TreapNode block = null;
+      for (int i = 0; i < count; i ++) {
+        long label = blockStart + i * spacing;
+        block = TreapNode.insert(block, new TreapNode(label, values[i]));
+        index = TreapNode.insert(index, new TreapNode(values[i], label));
       }
 
       return new Buffer(
-          (position + 1) % newValues.length,
-          newValues
+          position + 1,
+          TreapNode.merge(TreapNode.merge(lower[0], block), upper[1]),
+          index
       );
     }
 
@@ -67,13 +164,49 @@ public class Day17 {
      * @return Position of the given value, or -1 if the value isn't present.
      */
     public int positionOf(int value) {
-      for (int i = 0; i < values.length; i ++) {
-        if (values[i] == value) {
-          return i;
-        }
+      TreapNode node = TreapNode.ceiling(index, value, Long.MIN_VALUE);
+
+      if (node == null || node.first != value) {
+        return -1;
+      }
+
+      return TreapNode.rank(sequence, node.second, Long.MIN_VALUE);
+    }
+
+    /**
+     * Returns the value at the given position.
+     *
+     * @param position Position to read, between 0 and size() - 1
+     * @return Value at the position
+     */
+    public int get(int position) {
+      if (position < 0 || position >= size()) {
+        throw new IndexOutOfBoundsException("Position " + position + " is outside a buffer of size " + size());
       }
 
-      return -1;
+      return (int) TreapNode.select(sequence, position).second;
+    }
+
+    /**
+     * Returns the number of values in this buffer.
+     *
+     * @return Number of values
+     */
+    public int size() {
+      return TreapNode.size(sequence);
+    }
+
+    /**
+     * Returns a copy of every value in this buffer, in order.
+     *
+     * @return Values in this buffer
+     */
+    public int[] values() {
+      long[] labels = new long[size()];
+      long[] values = new long[size()];
+      TreapNode.copy(sequence, labels, values, 0);
+
+      return Arrays.stream(values).mapToInt(value -> (int) value).toArray();
     }
 
     /**
@@ -83,7 +216,7 @@ public class Day17 {
      * @return Position within this buffer's value
      */
     public int modPosition(int position) {
-      return position % values.length;
+      return position % size();
     }
 
     @Override
@@ -95,13 +228,13 @@ public class Day17 {
         return false;
       }
       Buffer buffer = (Buffer) other;
-      return position == buffer.position && Arrays.equals(values, buffer.values);
+      return position == buffer.position && Arrays.equals(values(), buffer.values());
     }
 
     @Override
     public int hashCode() {
       int result = Objects.hash(position);
-      result = 31 * result + Arrays.hashCode(values);
+      result = 31 * result + Arrays.hashCode(values());
       return result;
     }
 
@@ -109,9 +242,200 @@ public class Day17 {
     public String toString() {
       return MoreObjects.toStringHelper(this)
           .add("position", position)
-          .add("values", values)
+          .add("values", values())
           .toString();
     }
+
+    /**
+     * Immutable treap node keyed by a pair of longs, compared by first and then second.  Nodes are heap-ordered by a
+     * priority hashed from a sequence number, which keeps the expected depth logarithmic without a random number
+     * generator.  Updates copy only the nodes on the path they change.
+     */
+    private static class TreapNode {
+      private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+      private final long first;
+      private final long second;
+      private final int priority;
+      private final int size;
+      private final TreapNode left;
+      private final TreapNode right;
+
+      private TreapNode(long first, long second) {
+        this(first, second, hash(SEQUENCE.getAndIncrement()), null, null);
+      }
+
+      private TreapNode(long first, long second, int priority, TreapNode left, TreapNode right) {
+        this.first = first;
+        this.second = second;
+        this.priority = priority;
+        this.size = size(left) + size(right) + 1;
+        this.left = left;
+        this.right = right;
+      }
+
+      private TreapNode withChildren(TreapNode left, TreapNode right) {
+        return new TreapNode(first, second, priority, left, right);
+      }
+
+      private int compareTo(long first, long second) {
+        int compare = Long.compare(this.first, first);
+        return compare != 0 ? compare : Long.compare(this.second, second);
+      }
+
+      private static int size(TreapNode node) {
+        return node == null ? 0 : node.size;
+      }
+
+      private static int hash(int sequence) {
+        int h = sequence * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+      }
+
+      /**
+       * Returns a copy of the tree with the given single node inserted.
+       */
+      private static TreapNode insert(TreapNode node, TreapNode inserted) {
+        if (node == null) {
+          return inserted;
+        }
+
+        if (inserted.priority > node.priority) {
+          TreapNode[] split = split(node, inserted.first, inserted.second);
+          return inserted.withChildren(split[0], split[1]);
+        }
+
+        if (node.compareTo(inserted.first, inserted.second) > 0) {
+          return node.withChildren(insert(node.left, inserted), node.right);
+        }
+
+        return node.withChildren(node.left, insert(node.right, inserted));
+      }
+
+      /**
+       * Returns a copy of the tree without the node with the given key.
+       */
+      private static TreapNode delete(TreapNode node, long first, long second) {
+        if (node == null) {
+          throw new IllegalArgumentException("No node for " + first + ", " + second);
+        }
+
+        int compare = node.compareTo(first, second);
+        if (compare > 0) {
+          return node.withChildren(delete(node.left, first, second), node.right);
+        } else if (compare < 0) {
+          return node.withChildren(node.left, delete(node.right, first, second));
+        }
+
+        return merge(node.left, node.right);
+      }
+
+      /**
+       * Splits the tree into nodes before the given key and nodes at or after it.
+       */
+      private static TreapNode[] split(TreapNode node, long first, long second) {
+        if (node == null) {
+          return new TreapNode[]{null, null};
+        }
+
+        if (node.compareTo(first, second) >= 0) {
+          TreapNode[] split = split(node.left, first, second);
+          return new TreapNode[]{split[0], node.withChildren(split[1], node.right)};
+        }
+
+        TreapNode[] split = split(node.right, first, second);
+        return new TreapNode[]{node.withChildren(node.left, split[0]), split[1]};
+      }
+
+      /**
+       * Joins two trees, where every key in the left tree is before every key in the right tree.
+       */
+      private static TreapNode merge(TreapNode left, TreapNode right) {
+        if (left == null) {
+          return right;
+        }
+        if (right == null) {
+          return left;
+        }
+
+        if (left.priority > right.priority) {
+          return left.withChildren(left.left, merge(left.right, right));
+        }
+
+        return right.withChildren(merge(left, right.left), right.right);
+      }
+
+      /**
+       * Returns the number of nodes with keys before the given key.
+       */
+      private static int rank(TreapNode node, long first, long second) {
+        int rank = 0;
+
+        while (node != null) {
+          if (node.compareTo(first, second) >= 0) {
+            node = node.left;
+          } else {
+            rank += size(node.left) + 1;
+            node = node.right;
+          }
+        }
+
+        return rank;
+      }
+
+      /**
+       * Returns the node at the given index in key order.
+       */
+      private static TreapNode select(TreapNode node, int index) {
+        while (true) {
+          int leftSize = size(node.left);
+
+          if (index < leftSize) {
+            node = node.left;
+          } else if (index == leftSize) {
+            return node;
+          } else {
+            index -= leftSize + 1;
+            node = node.right;
+          }
+        }
+      }
+
+      /**
+       * Returns the node with the smallest key at or after the given key, or null if there isn't one.
+       */
+      private static TreapNode ceiling(TreapNode node, long first, long second) {
+        TreapNode ceiling = null;
+
+        while (node != null) {
+          if (node.compareTo(first, second) >= 0) {
+            ceiling = node;
+            node = node.left;
+          } else {
+            node = node.right;
+          }
+        }
+
+        return ceiling;
+      }
+
+      /**
+       * Copies the keys in the tree into the arrays starting at offset, returning the offset after the last key.
+       */
+      private static int copy(TreapNode node, long[] firsts, long[] seconds, int offset) {
+        while (node != null) {
+          offset = copy(node.left, firsts, seconds, offset);
+          firsts[offset] = node.first;
+          seconds[offset ++] = node.second;
+          node = node.right;
+        }
+
+        return offset;
+      }
+    }
   }
 
   /**
@@ -222,11 +546,82 @@ public class Day17 {
     return head.next.value;
   }
 
+  /**
+   * Spinlock that picks how to track insertions based on the query.  0 is never moved from the front of the
+   * buffer, so the value after 0 only needs the index of each insertion - O(n) time and O(1) memory.  Other
+   * values need the whole ring, which is kept as an int[] of next pointers instead of Node objects.
+   */
+  public static class Spinlock {
+    private final int step;
+    private final int times;
+    /** next[value] is the value after value in the buffer.  Built on the first query that needs it. */
+    private int[] next;
+
+    public Spinlock(int step, int times) {
+      this.step = step;
+      this.times = times;
+    }
+
+    /**
+     * Returns the value after the given number once every insertion has been made.
+     *
+     * @param number Number to look up, between 0 and times
+     * @return Value after the number in the circular buffer
+     */
+    public int valueAfter(int number) {
+      if (number < 0 || number > times) {
+        throw new IllegalArgumentException(number + " is never inserted");
+      }
+
+      if (number == 0) {
+        return valueAfterZero();
+      }
+
+      if (next == null) {
+        next = buildRing();
+      }
+
+      return next[number];
+    }
+
+    private int valueAfterZero() {
+      // 0 stays at index 0, so whatever was most recently inserted at index 1 is after it.
+      int valueAfter = 0;
+      int position = 0;
+
+      for (int i = 1; i <= times; i ++) {
+        position = (position + step) % i + 1;
+        if (position == 1) {
+          valueAfter = i;
+        }
+      }
+
+      return valueAfter;
+    }
+
+    private int[] buildRing() {
+      int[] next = new int[times + 1];
+      int current = 0;
+
+      for (int i = 1; i <= times; i ++) {
+        for (int rotate = step % i; rotate > 0; rotate--) {
+          current = next[current];
+        }
+
+        next[i] = next[current];
+        next[current] = i;
+        current = i;
+      }
+
+      return next;
+    }
+  }
+
   public static void main(String[] args) {
     Buffer part1 = insertTimes(349, 2017);
     int part1Index = part1.positionOf(2017);
 
-    System.out.println("Part 1: " + part1.values[part1.modPosition(part1Index + 1)]);
-    System.out.println("Part 2: " + linkedValueAfter(349, 50000000, 0));
+    System.out.println("Part 1: " + part1.get(part1.modPosition(part1Index + 1)));
+    System.out.println("Part 2: " + new Spinlock(349, 50000000).valueAfter(0));
   }
 }
@@ -13,7 +13,22 @@ import com.google.common.io.Resources;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -474,6 +489,1028 @@ public class Day18 {
     }
   }
 
+  /**
+   * End of a channel that a program receives values from.
+   */
+  public interface ReceiveChannel {
+    long remove();
+
+    boolean isEmpty();
+  }
+
+  /**
+   * End of a channel that a program sends values to.
+   */
+  public interface SendChannel {
+    void add(long value);
+  }
+
+  /**
+   * Queue of values sent from one program to another, usable from both ends.
+   */
+  public interface Channel extends ReceiveChannel, SendChannel {
+  }
+
+  /**
+   * Growable ring buffer of primitive longs, used in place of a Queue<Long> so sending values doesn't box.
+   */
+  public static class LongQueue implements Channel {
+    private long[] values;
+    private int head;
+    private int size;
+
+    public LongQueue() {
+      this.values = new long[16];
+    }
+
+    @Override
+    public void add(long value) {
+      if (size == values.length) {
+        long[] newValues = new long[values.length * 2];
+        System.arraycopy(values, head, newValues, 0, values.length - head);
+        System.arraycopy(values, 0, newValues, values.length - head, head);
+        values = newValues;
+        head = 0;
+      }
+
+      values[(head + size) & (values.length - 1)] = value;
+      size++;
+    }
+
+    /**
+     * Removes and returns the value at the head of this queue.
+     *
+     * @return Value at the head of the queue
+     * @throws NoSuchElementException if the queue is empty
+     */
+    @Override
+    public long remove() {
+      long value = peek();
+      head = (head + 1) & (values.length - 1);
+      size--;
+      return value;
+    }
+
+    /**
+     * Returns the value at the head of this queue without removing it.
+     *
+     * @return Value at the head of the queue
+     * @throws NoSuchElementException if the queue is empty
+     */
+    public long peek() {
+      if (size == 0) {
+        throw new NoSuchElementException();
+      }
+
+      return values[head];
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return size == 0;
+    }
+
+    public int size() {
+      return size;
+    }
+  }
+
+  /**
+   * Bounded lock-free ring of longs with a single producer thread and a single consumer thread.
+   * Values sent while the ring is full spill into an overflow queue that only the producer touches, and are
+   * moved into the ring in order as the consumer frees up space, so a full ring never blocks the sender.
+   */
+  public static class SpscChannel implements Channel {
+    private final long[] values;
+    private final int mask;
+    /** Index of the next value to remove.  Written only by the consumer. */
+    private final AtomicLong head = new AtomicLong();
+    /** Index of the next value to add.  Written only by the producer. */
+    private final AtomicLong tail = new AtomicLong();
+    /** Values that didn't fit in the ring, in order.  Producer only. */
+    private final LongQueue overflow = new LongQueue();
+    /** Producer's last read of head, refreshed only when the ring looks full. */
+    private long cachedHead;
+    /** Consumer thread parked waiting for a value, or null. */
+    private volatile Thread waitingConsumer;
+
+    /**
+     * Constructs a new channel.
+     *
+     * @param capacity Number of values the ring holds, rounded up to a power of two
+     */
+    public SpscChannel(int capacity) {
+      if (capacity < 1 || capacity > 1 << 30) {
+        throw new IllegalArgumentException("Invalid capacity " + capacity);
+      }
+
+      this.values = new long[capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1];
+      this.mask = values.length - 1;
+    }
+
+    @Override
+    public void add(long value) {
+      if (!flush() || !offer(value)) {
+        overflow.add(value);
+      }
+    }
+
+    /**
+     * Moves as many overflowed values as fit into the ring.  Must only be called by the producer.
+     *
+     * @return Whether the overflow is now empty
+     */
+    public boolean flush() {
+      while (!overflow.isEmpty()) {
+        if (!offer(overflow.peek())) {
+          return false;
+        }
+        overflow.remove();
+      }
+
+      return true;
+    }
+
+    private boolean offer(long value) {
+      long index = tail.get();
+      if (index - cachedHead == values.length) {
+        cachedHead = head.get();
+        if (index - cachedHead == values.length) {
+          return false;
+        }
+      }
+
+      values[(int) index & mask] = value;
+      tail.lazySet(index + 1);
+
+      Thread consumer = waitingConsumer;
+      if (consumer != null) {
+        LockSupport.unpark(consumer);
+      }
+
+      return true;
+    }
+
+    @Override
+    public long remove() {
+      long index = head.get();
+      if (index == tail.get()) {
+        throw new NoSuchElementException();
+      }
+
+      long value = values[(int) index & mask];
+      head.lazySet(index + 1);
+      return value;
+    }
+
+    /**
+     * Returns whether the ring is empty, as seen by the consumer.  Values still in the producer's overflow
+     * aren't visible until the producer flushes them.
+     *
+     * @return Whether there's nothing for the consumer to remove
+     */
+    @Override
+    public boolean isEmpty() {
+      return head.get() == tail.get();
+    }
+
+    /**
+     * Parks the calling consumer until a value is added or the timeout elapses.
+     *
+     * @param nanos Maximum time to park
+     */
+    void awaitValue(long nanos) {
+      waitingConsumer = Thread.currentThread();
+      if (isEmpty()) {
+        LockSupport.parkNanos(this, nanos);
+      }
+      waitingConsumer = null;
+    }
+  }
+
+  /**
+   * A program compiled into a flat code array.  Each instruction takes three ints: an opcode, then the
+   * register file slots of its X and Y operands.  Registers a-z are slots 0-25, and number operands are
+   * stored as constants in the slots after the registers, so reading any operand is a single array load.
+   */
+  public static class CompiledProgram {
+    static final int SND = 0;
+    static final int SET = 1;
+    static final int ADD = 2;
+    static final int MUL = 3;
+    static final int MOD = 4;
+    static final int RCV = 5;
+    static final int JGZ = 6;
+    static final int SEND = 7;
+    static final int RECEIVE = 8;
+
+    static final int NUM_REGISTERS = 26;
+
+    final int[] code;
+    final long[] constants;
+    /** Bitmask of the registers named by the program, indexed from 'a'. */
+    final int usedRegisters;
+    /** Number of instructions in the program. */
+    public final int size;
+
+    private CompiledProgram(int[] code, long[] constants, int usedRegisters) {
+      this.code = code;
+      this.constants = constants;
+      this.usedRegisters = usedRegisters;
+      this.size = code.length / 3;
+    }
+
+    /**
+     * Compiles the given program, parsing each instruction once.
+     *
+     * @param program Program to compile
+     * @param mode Whether snd and rcv play sounds or send values to another program
+     * @return Compiled program
+     */
+    public static CompiledProgram compile(ImmutableList<String> program, Mode mode) {
+      int[] code = new int[program.size() * 3];
+      long[] constants = new long[program.size() * 2];
+      int numConstants = 0;
+      int usedRegisters = 0;
+
+      for (int i = 0; i < program.size(); i ++) {
+        String instruction = program.get(i);
+        Matcher matcher = INSTRUCTION_PATTERN.matcher(instruction);
+        if (!matcher.matches()) {
+          throw new IllegalArgumentException("Invalid instruction " + instruction);
+        }
+
+        int opcode;
+        boolean writesX = true;
+        switch (matcher.group(1)) {
+          case "snd":
+            opcode = mode == SOUND ? SND : SEND;
+            writesX = false;
+            break;
+          case "set":
+            opcode = SET;
+            break;
+          case "add":
+            opcode = ADD;
+            break;
+          case "mul":
+            opcode = MUL;
+            break;
+          case "mod":
+            opcode = MOD;
+            break;
+          case "rcv":
+            opcode = mode == SOUND ? RCV : RECEIVE;
+            writesX = mode != SOUND;
+            break;
+          case "jgz":
+            opcode = JGZ;
+            writesX = false;
+            break;
+          default:
+            throw new IllegalArgumentException("Invalid instruction " + instruction);
+        }
+
+        code[i * 3] = opcode;
+        for (int operand = 1; operand <= 2; operand ++) {
+          String value = matcher.group(operand + 1);
+          if (value == null) {
+            continue;
+          }
+
+          char first = value.charAt(0);
+          if (first >= 'a' && first <= 'z') {
+            code[i * 3 + operand] = first - 'a';
+            usedRegisters |= 1 << (first - 'a');
+          } else if (operand == 1 && writesX) {
+            throw new IllegalArgumentException("Expected a register in instruction " + instruction);
+          } else {
+            code[i * 3 + operand] = NUM_REGISTERS + numConstants;
+            constants[numConstants++] = Long.parseLong(value);
+          }
+        }
+      }
+
+      return new CompiledProgram(code, Arrays.copyOf(constants, numConstants), usedRegisters);
+    }
+  }
+
+  /**
+   * Mutable machine that executes a compiled program.  Registers live in a long[] register file and the
+   * program counter is held in a local while running, so executing an instruction doesn't allocate.
+   */
+  public static class Machine {
+    private final CompiledProgram program;
+    private final long[] registers;
+    private final ReceiveChannel inQueue;
+    private final SendChannel outQueue;
+
+    private int programCounter;
+    private long playedFrequency;
+    private long recoveredFrequency;
+    private int sends;
+    private int receives;
+    private long instructions;
+
+    /**
+     * Constructs a new machine that plays sounds, with all registers initialized to 0.
+     *
+     * @param program Program compiled in SOUND mode
+     */
+    public Machine(CompiledProgram program) {
+      this(program, null, null);
+    }
+
+    /**
+     * Constructs a new machine that sends and receives values through the given queues.
+     *
+     * @param program Program compiled in SEND mode
+     * @param inQueue Queue of values received from the other program
+     * @param outQueue Queue of values being sent to the other program
+     */
+    public Machine(CompiledProgram program, ReceiveChannel inQueue, SendChannel outQueue) {
+      this.program = program;
+      this.registers = new long[CompiledProgram.NUM_REGISTERS + program.constants.length];
+      System.arraycopy(program.constants, 0, registers, CompiledProgram.NUM_REGISTERS, program.constants.length);
+      this.inQueue = inQueue;
+      this.outQueue = outQueue;
+    }
+
+    public Machine setRegister(char register, long value) {
+      registers[register - 'a'] = value;
+      return this;
+    }
+
+    public long getRegister(char register) {
+      return registers[register - 'a'];
+    }
+
+    public int getProgramCounter() {
+      return programCounter;
+    }
+
+    public long getRecoveredFrequency() {
+      return recoveredFrequency;
+    }
+
+    /**
+     * Returns the number of values this machine has sent to the other program.
+     *
+     * @return Number of values sent
+     */
+    public int getSends() {
+      return sends;
+    }
+
+    /**
+     * Returns the number of values this machine has received from other programs.
+     *
+     * @return Number of values received
+     */
+    public int getReceives() {
+      return receives;
+    }
+
+    /**
+     * Returns the number of instructions this machine has executed.
+     *
+     * @return Number of instructions executed
+     */
+    public long getInstructions() {
+      return instructions;
+    }
+
+    public boolean isRunning() {
+      return programCounter >= 0 && programCounter < program.size;
+    }
+
+    public boolean isBlocked() {
+      return program.code[programCounter * 3] == CompiledProgram.RECEIVE && inQueue.isEmpty();
+    }
+
+    /**
+     * Returns whether this machine can execute its next instruction.
+     *
+     * @return Whether this machine is running and not blocked on a receive
+     */
+    public boolean canProceed() {
+      return isRunning() && !isBlocked();
+    }
+
+    /**
+     * Runs this machine until the program terminates, blocks receiving from an empty queue, or recovers
+     * a non-zero frequency.
+     *
+     * @return This machine
+     */
+    public Machine run() {
+      return run(Long.MAX_VALUE);
+    }
+
+    /**
+     * Runs this machine until the program terminates, blocks receiving from an empty queue, recovers
+     * a non-zero frequency, or executes the given number of instructions.
+     *
+     * @param maxInstructions Maximum number of instructions to execute
+     * @return This machine
+     */
+    public Machine run(long maxInstructions) {
+      int[] code = program.code;
+      long[] registers = this.registers;
+      int size = program.size;
+      int pc = programCounter;
+      long remaining = maxInstructions;
+
+      loop:
+      while (pc >= 0 && pc < size && remaining > 0) {
+        remaining--;
+        int index = pc * 3;
+        int x = code[index + 1];
+        int y = code[index + 2];
+
+        switch (code[index]) {
+          case CompiledProgram.SND:
+            playedFrequency = registers[x];
+            pc++;
+            break;
+          case CompiledProgram.SET:
+            registers[x] = registers[y];
+            pc++;
+            break;
+          case CompiledProgram.ADD:
+            registers[x] += registers[y];
+            pc++;
+            break;
+          case CompiledProgram.MUL:
+            registers[x] *= registers[y];
+            pc++;
+            break;
+          case CompiledProgram.MOD:
+            if (registers[y] != 0) {
+              registers[x] %= registers[y];
+            }
+            pc++;
+            break;
+          case CompiledProgram.RCV:
+            pc++;
+            if (registers[x] != 0) {
+              recoveredFrequency = playedFrequency;
+              if (recoveredFrequency != 0) {
+                break loop;
+              }
+            }
+            break;
+          case CompiledProgram.JGZ:
+            pc = registers[x] > 0 ? (int) (pc + registers[y]) : pc + 1;
+            break;
+          case CompiledProgram.SEND:
+            outQueue.add(registers[x]);
+            sends++;
+            pc++;
+            break;
+          case CompiledProgram.RECEIVE:
+            if (inQueue.isEmpty()) {
+              remaining++;
+              break loop;
+            }
+            registers[x] = inQueue.remove();
+            receives++;
+            pc++;
+            break;
+          default:
+            throw new IllegalStateException("Invalid opcode " + code[index]);
+        }
+      }
+
+      programCounter = pc;
+      instructions += maxInstructions - remaining;
+      return this;
+    }
+
+    /**
+     * Returns an immutable snapshot of this machine, containing the registers named by the program.
+     *
+     * @return State matching this machine
+     */
+    public State toState() {
+      ImmutableMap.Builder<Character, Long> registerMap = ImmutableMap.builder();
+      for (int register = 0; register < CompiledProgram.NUM_REGISTERS; register ++) {
+        if ((program.usedRegisters & (1 << register)) != 0) {
+          registerMap.put((char) ('a' + register), registers[register]);
+        }
+      }
+
+      return new State(
+          registerMap.build(),
+          playedFrequency,
+          recoveredFrequency,
+          programCounter,
+          null,
+          null
+      );
+    }
+  }
+
+  /**
+   * Runs send-mode machines on their own threads, each reading from its own SpscChannel.  A machine that's
+   * blocked on an empty channel spins briefly, then parks until a value arrives.  Idle transitions happen
+   * under a lock: the run is deadlocked, and every thread stops, once every machine is parked or terminated
+   * with nothing left in any channel.
+   */
+  private static class ThreadedDuet {
+    private static final int SPINS = 100;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Machine[] machines;
+    private final SpscChannel[] inputs;
+    private final Thread[] threads;
+
+    private final Lock lock = new ReentrantLock();
+    /** Number of machines parked on an empty channel or terminated.  Guarded by lock. */
+    private int idle;
+    private volatile boolean done;
+    private volatile Throwable failure;
+
+    ThreadedDuet(CompiledProgram program, int channelCapacity, ThreadFactory threadFactory) {
+      this.inputs = new SpscChannel[]{new SpscChannel(channelCapacity), new SpscChannel(channelCapacity)};
+      this.machines = new Machine[]{
+          new Machine(program, inputs[0], inputs[1]).setRegister('p', 0),
+          new Machine(program, inputs[1], inputs[0]).setRegister('p', 1)
+      };
+
+      this.threads = new Thread[machines.length];
+      for (int i = 0; i < machines.length; i ++) {
+        int id = i;
+        threads[i] = threadFactory.newThread(() -> work(id));
+      }
+    }
+
+    /**
+     * Runs every machine to termination or deadlock.
+     *
+     * @return The machines, after they've stopped
+     */
+    Machine[] run() {
+      for (Thread thread : threads) {
+        thread.start();
+      }
+
+      try {
+        for (Thread thread : threads) {
+          thread.join();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        stop();
+        throw new IllegalStateException("Interrupted waiting for programs", e);
+      }
+
+      if (failure != null) {
+        throw new IllegalStateException("Program failed", failure);
+      }
+
+      return machines;
+    }
+
+    private void work(int id) {
+      Machine machine = machines[id];
+      SpscChannel in = inputs[id];
+      SpscChannel out = inputs[(id + 1) % inputs.length];
+
+      try {
+        while (!done) {
+          machine.run();
+
+          if (!machine.isRunning()) {
+            // The other program may still need everything this one sent.
+            while (!out.flush() && !done) {
+              Thread.yield();
+            }
+            becomeIdle();
+            return;
+          }
+
+          if (!awaitInput(in, out)) {
+            return;
+          }
+        }
+      } catch (Throwable t) {
+        failure = t;
+        stop();
+      }
+    }
+
+    /**
+     * Waits for a value to receive, flushing this machine's own overflow while waiting.
+     *
+     * @return Whether a value is available, or false if the run is done
+     */
+    private boolean awaitInput(SpscChannel in, SpscChannel out) {
+      for (int spin = 0; ; spin ++) {
+        boolean flushed = out.flush();
+        if (!in.isEmpty()) {
+          return true;
+        }
+        if (done) {
+          return false;
+        }
+        if (spin < SPINS) {
+          continue;
+        }
+        if (!flushed) {
+          // The other program is busy with a full channel - let it catch up.
+          Thread.yield();
+          continue;
+        }
+
+        if (!becomeIdle()) {
+          return false;
+        }
+
+        while (in.isEmpty() && !done) {
+          in.awaitValue(PARK_NANOS);
+        }
+
+        lock.lock();
+        try {
+          idle--;
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+
+    /**
+     * Marks the calling machine idle, ending the run if every machine is now idle with nothing to receive.
+     *
+     * @return Whether the run is still going
+     */
+    private boolean becomeIdle() {
+      lock.lock();
+      try {
+        idle++;
+        if (idle == machines.length && allInputsEmpty()) {
+          stop();
+        }
+        return !done;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private boolean allInputsEmpty() {
+      for (SpscChannel input : inputs) {
+        if (!input.isEmpty()) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    private void stop() {
+      done = true;
+      for (Thread thread : threads) {
+        LockSupport.unpark(thread);
+      }
+    }
+  }
+
+  /**
+   * How the instances in a DuetCluster are wired together.
+   */
+  public enum Topology {
+    /** Instance i sends to instance i + 1, and the last instance sends to the first. */
+    RING,
+    /** Instances are paired off - 0 with 1, 2 with 3, and so on - and send to their partner. */
+    PAIRWISE,
+    /** Every instance sends to every other instance. */
+    BROADCAST;
+
+    /**
+     * Returns the instances that the given instance sends to.
+     *
+     * @param instance Instance that's sending
+     * @param size Number of instances in the cluster
+     * @return Ids of the instances that receive what the given instance sends
+     */
+    public int[] targets(int instance, int size) {
+      switch (this) {
+        case RING:
+          return new int[]{(instance + 1) % size};
+        case PAIRWISE:
+          if (size % 2 != 0) {
+            throw new IllegalArgumentException("Pairwise topology needs an even number of instances, not " + size);
+          }
+          return new int[]{instance ^ 1};
+        case BROADCAST:
+          int[] targets = new int[size - 1];
+          for (int i = 0, target = 0; i < size; i ++) {
+            if (i != instance) {
+              targets[target++] = i;
+            }
+          }
+          return targets;
+        default:
+          throw new IllegalStateException("Unknown topology " + this);
+      }
+    }
+  }
+
+  /**
+   * Counts from a DuetCluster run.
+   */
+  public static class ClusterResult {
+    /** Number of values each instance sent, indexed by instance id. */
+    public final long[] sends;
+    /** Number of values each instance received, indexed by instance id. */
+    public final long[] receives;
+    /** Total number of instructions executed by every instance. */
+    public final long instructions;
+    /** Wall clock time the run took. */
+    public final long nanos;
+    /** Whether the run ended with at least one instance blocked, rather than every instance terminating. */
+    public final boolean deadlocked;
+
+    public ClusterResult(long[] sends, long[] receives, long instructions, long nanos, boolean deadlocked) {
+      this.sends = sends;
+      this.receives = receives;
+      this.instructions = instructions;
+      this.nanos = nanos;
+      this.deadlocked = deadlocked;
+    }
+
+    public long totalSends() {
+      return Arrays.stream(sends).sum();
+    }
+
+    public double sendsPerSecond() {
+      return totalSends() * 1e9 / Math.max(1, nanos);
+    }
+
+    public double instructionsPerSecond() {
+      return instructions * 1e9 / Math.max(1, nanos);
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("sends", Arrays.toString(sends))
+          .add("receives", Arrays.toString(receives))
+          .add("instructions", instructions)
+          .add("nanos", nanos)
+          .add("deadlocked", deadlocked)
+          .toString();
+    }
+  }
+
+  /**
+   * Runs N copies of a send-mode program wired together in a topology, with instance i starting with p = i.
+   * Instances are scheduled across a fixed pool of worker threads: a worker takes an instance off the run
+   * queue and runs it until it blocks, terminates, or uses up its time slice.
+   *
+   * The cluster keeps a count of instances that are runnable or running.  Blocking or terminating
+   * decrements it, and a send that wakes a blocked instance increments it before the sender can block, so
+   * the count reaching zero means global deadlock without rescanning the instances.
+   */
+  public static class DuetCluster {
+    private static final long TIME_SLICE = 100_000;
+
+    private static final int RUNNABLE = 0;
+    private static final int BLOCKED = 1;
+    private static final int FINISHED = 2;
+
+    private final Instance[] instances;
+    private final int workers;
+    private final BlockingQueue<Instance> runQueue;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicBoolean stopping = new AtomicBoolean();
+    /** Placed on the run queue once per worker to shut the pool down. */
+    private final Instance stop = new Instance();
+    private volatile Throwable failure;
+
+    /**
+     * Constructs a new cluster.
+     *
+     * @param program Program that every instance runs
+     * @param size Number of instances
+     * @param topology How instances send to each other
+     * @param workers Number of worker threads
+     */
+    public DuetCluster(ImmutableList<String> program, int size, Topology topology, int workers) {
+      if (size < 1 || workers < 1) {
+        throw new IllegalArgumentException("Need at least one instance and one worker");
+      }
+
+      CompiledProgram compiled = CompiledProgram.compile(program, SEND);
+
+      this.instances = new Instance[size];
+      for (int i = 0; i < size; i ++) {
+        instances[i] = new Instance();
+      }
+      for (int i = 0; i < size; i ++) {
+        int[] targets = topology.targets(i, size);
+        Instance[] targetInstances = new Instance[targets.length];
+        for (int target = 0; target < targets.length; target ++) {
+          targetInstances[target] = instances[targets[target]];
+        }
+
+        instances[i].machine = new Machine(compiled, instances[i], new Outbox(targetInstances))
+            .setRegister('p', i);
+      }
+
+      this.workers = workers;
+      this.runQueue = new ArrayBlockingQueue<>(size + workers);
+    }
+
+    /**
+     * Runs every instance until they've all terminated or the cluster is deadlocked.
+     *
+     * @return Per-instance counts and throughput for the run
+     */
+    public ClusterResult run() {
+      long start = System.nanoTime();
+
+      active.set(instances.length);
+      runQueue.addAll(Arrays.asList(instances));
+
+      ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+        Thread thread = new Thread(runnable, "duet-cluster");
+        thread.setDaemon(true);
+        return thread;
+      });
+      for (int i = 0; i < workers; i ++) {
+        pool.execute(this::work);
+      }
+      pool.shutdown();
+
+      try {
+        while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+          // Keep waiting - the run ends when the cluster deadlocks or terminates.
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        pool.shutdownNow();
+        throw new IllegalStateException("Interrupted waiting for the cluster", e);
+      }
+
+      if (failure != null) {
+        throw new IllegalStateException("Program failed", failure);
+      }
+
+      long[] sends = new long[instances.length];
+      long[] receives = new long[instances.length];
+      long instructions = 0;
+      boolean deadlocked = false;
+      for (int i = 0; i < instances.length; i ++) {
+        Machine machine = instances[i].machine;
+        sends[i] = machine.getSends();
+        receives[i] = machine.getReceives();
+        instructions += machine.getInstructions();
+        deadlocked |= instances[i].state == BLOCKED;
+      }
+
+      return new ClusterResult(sends, receives, instructions, System.nanoTime() - start, deadlocked);
+    }
+
+    private void work() {
+      try {
+        while (true) {
+          Instance instance = runQueue.take();
+          if (instance == stop) {
+            return;
+          }
+
+          Machine machine = instance.machine.run(TIME_SLICE);
+
+          if (machine.isRunning() && !machine.isBlocked()) {
+            // Used up its time slice.
+            runQueue.add(instance);
+          } else if (instance.park(machine.isRunning() ? BLOCKED : FINISHED)) {
+            if (active.decrementAndGet() == 0) {
+              shutdown();
+            }
+          } else {
+            // Values arrived while it was blocking.
+            runQueue.add(instance);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Throwable t) {
+        failure = t;
+        shutdown();
+      }
+    }
+
+    private void shutdown() {
+      if (!stopping.compareAndSet(false, true)) {
+        return;
+      }
+
+      for (int i = 0; i < workers; i ++) {
+        runQueue.add(stop);
+      }
+    }
+
+    /**
+     * Delivers a value to the given instance, putting it back on the run queue if it was blocked.
+     */
+    private void deliver(Instance instance, long value) {
+      boolean wake;
+      synchronized (instance) {
+        instance.shared.add(value);
+        wake = instance.state == BLOCKED;
+        if (wake) {
+          instance.state = RUNNABLE;
+        }
+      }
+
+      if (wake) {
+        active.incrementAndGet();
+        runQueue.add(instance);
+      }
+    }
+
+    /**
+     * One program in the cluster, and the channel it receives on.  Senders add to the shared queue under the
+     * instance's lock; the instance swaps the whole shared queue into its local queue once the local one
+     * runs dry, so it only takes the lock once per batch of values.
+     */
+    private static class Instance implements ReceiveChannel {
+      private Machine machine;
+      /** Values being received.  Only touched by the worker running this instance. */
+      private LongQueue local = new LongQueue();
+      /** Values sent to this instance that it hasn't picked up yet.  Guarded by this. */
+      private LongQueue shared = new LongQueue();
+      /** Guarded by this. */
+      private int state = RUNNABLE;
+
+      @Override
+      public long remove() {
+        refill();
+        return local.remove();
+      }
+
+      @Override
+      public boolean isEmpty() {
+        return !refill();
+      }
+
+      /**
+       * Swaps in the shared queue if the local one has run dry.
+       *
+       * @return Whether the local queue now has values
+       */
+      private boolean refill() {
+        if (!local.isEmpty()) {
+          return true;
+        }
+
+        synchronized (this) {
+          LongQueue empty = local;
+          local = shared;
+          shared = empty;
+        }
+
+        return !local.isEmpty();
+      }
+
+      /**
+       * Moves this instance to the given blocked or finished state, unless values have arrived since it
+       * blocked.
+       *
+       * @return Whether this instance stopped being runnable
+       */
+      private synchronized boolean park(int newState) {
+        if (newState == BLOCKED && !shared.isEmpty()) {
+          return false;
+        }
+
+        state = newState;
+        return true;
+      }
+    }
+
+    /**
+     * Sending end that delivers every value sent to all of an instance's targets.
+     */
+    private class Outbox implements SendChannel {
+      private final Instance[] targets;
+
+      private Outbox(Instance[] targets) {
+        this.targets = targets;
+      }
+
+      @Override
+      public void add(long value) {
+        for (Instance target : targets) {
+          deliver(target, value);
+        }
+      }
+    }
+  }
+
   /**
    * Runs the given program, returning the state of the machine after executing all of the instructions.
    *
@@ -481,6 +1518,128 @@ public class Day18 {
    * @return State of the machine after running the program
    */
   public static State runSound(ImmutableList<String> program) {
+    return new Machine(CompiledProgram.compile(program, SOUND))
+        .run()
+        .toState();
+  }
+
+  /**
+   * Runs the given program as JVM bytecode compiled by AssemblyCompiler, returning the state of the machine
+   * after executing all of the instructions.  Falls back to the Machine if the program uses anything the
+   * compiler doesn't support.
+   *
+   * @param program Program to run
+   * @return State of the machine after running the program
+   */
+  public static State runSoundCompiled(ImmutableList<String> program) {
+    CompiledProgram compiledProgram = CompiledProgram.compile(program, SOUND);
+    Optional<AssemblyCompiler.Program> compiled = AssemblyCompiler.compile(program);
+    if (!compiled.isPresent()) {
+      return new Machine(compiledProgram).run().toState();
+    }
+
+    long[] registers = new long[AssemblyCompiler.NUM_SLOTS];
+    int programCounter = compiled.get().run(registers);
+
+    ImmutableMap.Builder<Character, Long> registerMap = ImmutableMap.builder();
+    for (int register = 0; register < CompiledProgram.NUM_REGISTERS; register ++) {
+      if ((compiledProgram.usedRegisters & (1 << register)) != 0) {
+        registerMap.put((char) ('a' + register), registers[register]);
+      }
+    }
+
+    return new State(
+        registerMap.build(),
+        registers[AssemblyCompiler.PLAYED],
+        registers[AssemblyCompiler.RECOVERED],
+        programCounter,
+        null,
+        null
+    );
+  }
+
+  /**
+   * Runs the given program on the program 0 and program 1 machines, returning the number of values
+   * sent by program 1.
+   *
+   * @param program Program to run
+   * @return Number of times program 1 sent a value
+   */
+  public static int runSend(ImmutableList<String> program) {
+    CompiledProgram compiled = CompiledProgram.compile(program, SEND);
+
+    LongQueue queue0 = new LongQueue();
+    LongQueue queue1 = new LongQueue();
+
+    Machine machine0 = new Machine(compiled, queue0, queue1)
+        .setRegister('p', 0);
+    Machine machine1 = new Machine(compiled, queue1, queue0)
+        .setRegister('p', 1);
+
+    // Run each program until it blocks or terminates, then switch to the other program.
+    // Program 1 can't proceed after it runs, so both are done if program 1 didn't unblock program 0.
+    do {
+      machine0.run();
+      machine1.run();
+    } while (machine0.canProceed());
+
+    return machine1.getSends();
+  }
+
+  /**
+   * Runs program 0 and program 1 on their own threads, connected by bounded lock-free channels, returning
+   * the number of values sent by program 1.  Uses virtual threads when the JVM supports them.
+   *
+   * @param program Program to run
+   * @return Number of times program 1 sent a value
+   */
+  public static int runSendThreaded(ImmutableList<String> program) {
+    return runSendThreaded(program, DEFAULT_CHANNEL_CAPACITY);
+  }
+
+  /**
+   * Runs program 0 and program 1 on their own threads, connected by bounded lock-free channels, returning
+   * the number of values sent by program 1.
+   *
+   * @param program Program to run
+   * @param channelCapacity Number of values each channel holds before the sender spills into overflow
+   * @return Number of times program 1 sent a value
+   */
+  public static int runSendThreaded(ImmutableList<String> program, int channelCapacity) {
+    CompiledProgram compiled = CompiledProgram.compile(program, SEND);
+    Machine[] machines = new ThreadedDuet(compiled, channelCapacity, programThreadFactory()).run();
+
+    return machines[1].getSends();
+  }
+
+  private static final int DEFAULT_CHANNEL_CAPACITY = 1024;
+
+  /**
+   * Returns a factory for virtual threads if this JVM has them, or daemon platform threads otherwise.
+   *
+   * @return Thread factory for running programs
+   */
+  private static ThreadFactory programThreadFactory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return runnable -> {
+        Thread thread = new Thread(runnable, "duet");
+        thread.setDaemon(true);
+        return thread;
+      };
+    }
+  }
+
+  /**
+   * Runs the given program on the immutable State reference interpreter, returning the state of the machine
+   * after executing all of the instructions.
+   *
+   * @param program Program to run
+   * @return State of the machine after running the program
+   */
+  public static State runSoundReference(ImmutableList<String> program) {
     State state = new State();
     ImmutableList<Instruction> instructions = program.stream()
         .map(instruction -> Day18.parseInstruction(instruction, SOUND))
@@ -493,7 +1652,14 @@ public class Day18 {
     return state;
   }
 
-  public static int runSend(ImmutableList<String> program) {
+  /**
+   * Runs the given program on the immutable State reference interpreter, returning the number of values
+   * sent by program 1.
+   *
+   * @param program Program to run
+   * @return Number of times program 1 sent a value
+   */
+  public static int runSendReference(ImmutableList<String> program) {
     ImmutableList<Instruction> instructions = program.stream()
         .map(instruction -> Day18.parseInstruction(instruction, SEND))
         .collect(ImmutableList.toImmutableList());
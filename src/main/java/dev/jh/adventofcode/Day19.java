@@ -6,18 +6,33 @@ import static dev.jh.adventofcode.Day19.Direction.LEFT;
 import static dev.jh.adventofcode.Day19.Direction.RIGHT;
 import static dev.jh.adventofcode.Day19.Direction.UP;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.io.Files;
 import com.google.common.io.Resources;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.function.BiFunction;
 import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
@@ -87,7 +102,7 @@ public class Day19 {
     }
 
     public boolean isInside(char[][] maze) {
-      return row >= 0 && column >= 0 && row < maze.length && column < maze[0].length;
+      return row >= 0 && column >= 0 && row < maze.length && column < maze[row].length;
     }
   }
 
@@ -127,6 +142,285 @@ public class Day19 {
     }
   }
 
+  /**
+   * Read-only view of a maze.  Reads outside of the maze, including past the end of a short row, return ' '.
+   */
+  public interface Maze {
+    char letter(int row, int column);
+
+    int rows();
+
+    /**
+     * Returns the length of the given row, not counting its line ending.
+     */
+    int width(int row);
+  }
+
+  /**
+   * Maze backed by an array of rows, which may have different lengths.
+   */
+  public static class CharMaze implements Maze {
+    private final char[][] maze;
+
+    public CharMaze(char[][] maze) {
+      this.maze = maze;
+    }
+
+    @Override
+    public char letter(int row, int column) {
+      if (row < 0 || row >= maze.length || column < 0 || column >= maze[row].length) {
+        return ' ';
+      }
+
+      return maze[row][column];
+    }
+
+    @Override
+    public int rows() {
+      return maze.length;
+    }
+
+    @Override
+    public int width(int row) {
+      return row < 0 || row >= maze.length ? 0 : maze[row].length;
+    }
+  }
+
+  /**
+   * Maze read straight from a memory-mapped file, so mazes larger than the heap can be walked.  Opening the maze
+   * makes one pass over the file to record where each line starts, and letters are read from the mapped bytes as
+   * ASCII.  Files over 2GB are mapped in several chunks.
+   */
+  public static class MappedMaze implements Maze, Closeable {
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    /** lineStarts[row] is the offset of the row's first byte, and lineStarts[rows] is the end of the file. */
+    private final long[] lineStarts;
+    private final int rows;
+
+    private MappedMaze(FileChannel channel, MappedByteBuffer[] chunks, long[] lineStarts, int rows) {
+      this.channel = channel;
+      this.chunks = chunks;
+      this.lineStarts = lineStarts;
+      this.rows = rows;
+    }
+
+    /**
+     * Maps the file and indexes its lines.
+     *
+     * @param path File to open
+     * @return Maze backed by the file
+     * @throws IOException If the file can't be read
+     */
+    public static MappedMaze open(Path path) throws IOException {
+      FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+
+      try {
+        long size = channel.size();
+        MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+        for (int i = 0; i < chunks.length; i ++) {
+          long start = i * CHUNK_SIZE;
+          chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+        }
+
+        long[] lineStarts = new long[16];
+        int rows = 0;
+        long lineStart = 0;
+        for (int i = 0; i < chunks.length; i ++) {
+          MappedByteBuffer chunk = chunks[i];
+          for (int j = 0; j < chunk.limit(); j ++) {
+            if (chunk.get(j) == '\n') {
+              if (rows + 1 >= lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+              }
+              lineStarts[rows ++] = lineStart;
+              lineStart = i * CHUNK_SIZE + j + 1;
+            }
+          }
+        }
+
+        // The last line may not end in a newline.
+        if (lineStart < size) {
+          if (rows + 1 >= lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineStarts.length + 1);
+          }
+          lineStarts[rows ++] = lineStart;
+        }
+        lineStarts[rows] = size;
+
+        return new MappedMaze(channel, chunks, lineStarts, rows);
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public int rows() {
+      return rows;
+    }
+
+    @Override
+    public char letter(int row, int column) {
+      if (row < 0 || row >= rows || column < 0 || column >= width(row)) {
+        return ' ';
+      }
+
+      return (char) (byteAt(lineStarts[row] + column) & 0xFF);
+    }
+
+    @Override
+    public int width(int row) {
+      if (row < 0 || row >= rows) {
+        return 0;
+      }
+
+      long end = lineStarts[row + 1];
+      // Don't count the line ending - '\n' or '\r\n'.
+      if (end > lineStarts[row] && byteAt(end - 1) == '\n') {
+        end --;
+      }
+      if (end > lineStarts[row] && byteAt(end - 1) == '\r') {
+        end --;
+      }
+
+      return (int) (end - lineStarts[row]);
+    }
+
+    private byte byteAt(long offset) {
+      return chunks[(int) (offset >>> CHUNK_BITS)].get((int) (offset & (CHUNK_SIZE - 1)));
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  /**
+   * Visits each cell along the path with primitive arguments, so walking the path doesn't allocate per step.
+   */
+  public interface CellVisitor {
+    void visit(int row, int column, char letter, Direction direction);
+  }
+
+  /**
+   * Counts the cells along the path.
+   */
+  public static class StepCounter implements CellVisitor {
+    private long steps;
+
+    @Override
+    public void visit(int row, int column, char letter, Direction direction) {
+      steps ++;
+    }
+
+    public long steps() {
+      return steps;
+    }
+  }
+
+  /**
+   * Collects the letters along the path, in order.
+   */
+  public static class LetterCollector implements CellVisitor {
+    private final StringBuilder letters = new StringBuilder();
+
+    @Override
+    public void visit(int row, int column, char letter, Direction direction) {
+      if (letter >= 'A' && letter <= 'Z') {
+        letters.append(letter);
+      }
+    }
+
+    public String letters() {
+      return letters.toString();
+    }
+  }
+
+  /**
+   * Marks every cell along the path in a bitmap with one bit per cell, rows padded to the given width.
+   */
+  public static class PathBitmap implements CellVisitor {
+    private final int width;
+    private final long[] bits;
+
+    public PathBitmap(int rows, int width) {
+      this.width = width;
+      this.bits = new long[(int) (((long) rows * width + 63) >>> 6)];
+    }
+
+    public PathBitmap(Maze maze) {
+      this(maze.rows(), maxWidth(maze));
+    }
+
+    @Override
+    public void visit(int row, int column, char letter, Direction direction) {
+      long bit = (long) row * width + column;
+      bits[(int) (bit >>> 6)] |= 1L << bit;
+    }
+
+    public boolean contains(int row, int column) {
+      if (row < 0 || column < 0 || column >= width) {
+        return false;
+      }
+
+      long bit = (long) row * width + column;
+      int word = (int) (bit >>> 6);
+      return word < bits.length && (bits[word] & (1L << bit)) != 0;
+    }
+
+    public long count() {
+      long count = 0;
+      for (long word : bits) {
+        count += Long.bitCount(word);
+      }
+      return count;
+    }
+  }
+
+  /**
+   * Walks the path through the maze one cell at a time, handing each cell to the visitor.  The walk only uses
+   * primitive positions and the Direction constants, so the only allocation is finding the start.
+   *
+   * @param maze Maze to walk
+   * @param visitor Visitor to call on each cell along the path
+   * @return The visitor, for chaining
+   */
+  public static <V extends CellVisitor> V traverse(Maze maze, V visitor) {
+    State start = findStart(maze);
+    int row = start.position.row;
+    int column = start.position.column;
+    Direction direction = start.direction;
+
+    while (true) {
+      char letter = maze.letter(row, column);
+      visitor.visit(row, column, letter, direction);
+
+      if (letter == '+') {
+        direction = turn(maze, row, column, direction);
+      }
+
+      row += rowStep(direction);
+      column += columnStep(direction);
+
+      if (maze.letter(row, column) == ' ') {
+        return visitor;
+      }
+    }
+  }
+
+  private static int maxWidth(Maze maze) {
+    int width = 0;
+    for (int row = 0; row < maze.rows(); row ++) {
+      width = Math.max(width, maze.width(row));
+    }
+    return width;
+  }
+
   public static <T> T traverse(
       char[][] maze,
       T initialValue,
@@ -145,7 +439,7 @@ public class Day19 {
   }
 
   private static Direction direction(Position nextPosition, Direction currentDirection, char[][] maze) {
-    char nextLetter = nextPosition.letter(maze);
+    char nextLetter = nextPosition.isInside(maze) ? nextPosition.letter(maze) : ' ';
 
     if (nextLetter == ' ') {
       return DONE;
@@ -172,54 +466,552 @@ public class Day19 {
     }
   }
 
-  public static String letters(ImmutableList<String> lines) {
-    ImmutableSet<Character> directions = ImmutableSet.of('|', '-', '+');
+  /**
+   * Straight run of the path - the cell it starts on, the direction it heads, how many cells it covers, and the
+   * letters on them.  A segment ends on a '+' where the path turns, or on the last cell of the path.
+   */
+  public static class Segment {
+    public final int row;
+    public final int column;
+    public final Direction direction;
+    public final int length;
+    public final String letters;
 
-    char[][] maze = parse(lines);
+    public Segment(int row, int column, Direction direction, int length, String letters) {
+      this.row = row;
+      this.column = column;
+      this.direction = direction;
+      this.length = length;
+      this.letters = letters;
+    }
+
+    public int endRow() {
+      return row + rowStep(direction) * (length - 1);
+    }
+
+    public int endColumn() {
+      return column + columnStep(direction) * (length - 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Segment)) {
+        return false;
+      }
+      Segment segment = (Segment) o;
+      return row == segment.row
+          && column == segment.column
+          && direction == segment.direction
+          && length == segment.length
+          && Objects.equals(letters, segment.letters);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(row, column, direction, length, letters);
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("row", row)
+          .add("column", column)
+          .add("direction", direction)
+          .add("length", length)
+          .add("letters", letters)
+          .toString();
+    }
+  }
+
+  /**
+   * Compiled path through a maze, answering both parts from the same segments in O(number of turns).
+   */
+  public static class CompiledPath {
+    public final ImmutableList<Segment> segments;
+
+    public CompiledPath(ImmutableList<Segment> segments) {
+      this.segments = segments;
+    }
+
+    public String letters() {
+      return segments.stream()
+          .map(segment -> segment.letters)
+          .collect(Collectors.joining());
+    }
+
+    public long steps() {
+      return segments.stream()
+          .mapToLong(segment -> segment.length)
+          .sum();
+    }
+  }
 
-    return traverse(maze, "", (state, accumulator) -> {
-      char letter = state.position.letter(maze);
-      if (!directions.contains(letter)) {
-        return accumulator + letter;
+  private static int rowStep(Direction direction) {
+    return direction == UP ? -1 : direction == DOWN ? 1 : 0;
+  }
+
+  private static int columnStep(Direction direction) {
+    return direction == LEFT ? -1 : direction == RIGHT ? 1 : 0;
+  }
+
+  /**
+   * Compiles the path through the maze into straight segments, in the order traverse would walk them.  Cells are
+   * read with primitive row and column steps, and each segment is built once, so answering questions about the path
+   * afterwards only touches one object per turn.
+   *
+   * @param maze Maze to compile
+   * @return Segments along the path
+   */
+  public static ImmutableList<Segment> compile(char[][] maze) {
+    return compile(new CharMaze(maze));
+  }
+
+  /**
+   * Compiles the path through the given maze into straight segments.
+   *
+   * @param maze Maze to compile
+   * @return Segments along the path
+   */
+  public static ImmutableList<Segment> compile(Maze maze) {
+    ImmutableList.Builder<Segment> segments = ImmutableList.builder();
+
+    State start = findStart(maze);
+    int row = start.position.row;
+    int column = start.position.column;
+    Direction direction = start.direction;
+
+    StringBuilder letters = new StringBuilder();
+    while (direction != DONE) {
+      Segment segment = scan(maze, row, column, direction, letters);
+      segments.add(segment);
+
+      row = segment.endRow();
+      column = segment.endColumn();
+      direction = maze.letter(row, column) == '+' ? turn(maze, row, column, direction) : DONE;
+      row += rowStep(direction);
+      column += columnStep(direction);
+    }
+
+    return segments.build();
+  }
+
+  /**
+   * Scans a straight run starting at the given cell, ending on a '+' or on the last cell before a ' '.
+   *
+   * @param letters Scratch buffer for the segment's letters
+   */
+  private static Segment scan(Maze maze, int row, int column, Direction direction, StringBuilder letters) {
+    int rowStep = rowStep(direction);
+    int columnStep = columnStep(direction);
+    int startRow = row;
+    int startColumn = column;
+    int length = 0;
+    letters.setLength(0);
+
+    while (true) {
+      char letter = maze.letter(row, column);
+      length ++;
+
+      if (letter >= 'A' && letter <= 'Z') {
+        letters.append(letter);
       }
 
-      return accumulator;
+      if (letter == '+' || maze.letter(row + rowStep, column + columnStep) == ' ') {
+        return new Segment(startRow, startColumn, direction, length, letters.toString());
+      }
+
+      row += rowStep;
+      column += columnStep;
+    }
+  }
+
+  /**
+   * Returns the direction to leave a '+' in, checking directions in the same order as traverse.
+   */
+  private static Direction turn(Maze maze, int row, int column, Direction currentDirection) {
+    for (Direction nextDirection : TURNS) {
+      if (nextDirection == OPPOSITE_DIRECTIONS.get(currentDirection)) {
+        continue;
+      }
+
+      char letter = maze.letter(row + rowStep(nextDirection), column + columnStep(nextDirection));
+      if (letter == nextDirection.letter || (letter >= 'A' && letter <= 'Z')) {
+        return nextDirection;
+      }
+    }
+
+    throw new IllegalStateException("No direction from " + new Position(row, column));
+  }
+
+  private static final Direction[] TURNS = {UP, DOWN, LEFT, RIGHT};
+
+  /**
+   * Every direction a '+' can be left in other than back the way the path came, in the same order as turn.
+   */
+  private static ImmutableList<Direction> exits(Maze maze, int row, int column, Direction currentDirection) {
+    ImmutableList.Builder<Direction> exits = ImmutableList.builder();
+
+    for (Direction nextDirection : TURNS) {
+      if (nextDirection == OPPOSITE_DIRECTIONS.get(currentDirection)) {
+        continue;
+      }
+
+      char letter = maze.letter(row + rowStep(nextDirection), column + columnStep(nextDirection));
+      if (letter == nextDirection.letter || (letter >= 'A' && letter <= 'Z')) {
+        exits.add(nextDirection);
+      }
+    }
+
+    return exits.build();
+  }
+
+  /**
+   * One path found by explore - the column it entered on, and the letters and steps along it.  Looped paths ended
+   * because their next segment was one they had already walked.
+   */
+  public static class Walk {
+    public final int startColumn;
+    public final String letters;
+    public final long steps;
+    public final boolean looped;
+
+    public Walk(int startColumn, String letters, long steps, boolean looped) {
+      this.startColumn = startColumn;
+      this.letters = letters;
+      this.steps = steps;
+      this.looped = looped;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Walk)) {
+        return false;
+      }
+      Walk walk = (Walk) o;
+      return startColumn == walk.startColumn
+          && steps == walk.steps
+          && looped == walk.looped
+          && Objects.equals(letters, walk.letters);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(startColumn, letters, steps, looped);
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("startColumn", startColumn)
+          .add("letters", letters)
+          .add("steps", steps)
+          .add("looped", looped)
+          .toString();
+    }
+  }
+
+  /**
+   * Follows every path from every '|' on the top row, taking every exit from each '+' instead of the first one.
+   *
+   * <p>Exploring happens in two passes.  The first walks the maze with fork-join tasks that split at each '+' with
+   * more than one exit, claiming segments in a shared bitset by their first cell and direction so each segment is
+   * scanned exactly once.  That builds a graph of segments, which is the same whatever order the tasks ran in.  The
+   * second joins paths through the graph, memoizing the paths that continue from each segment so every path that
+   * reaches a segment shares them.  A path ends when it reaches a segment it has already walked, marked as looped.
+   *
+   * @param maze Maze to explore
+   * @param pool Pool to walk the maze in
+   * @return Every path, ordered by start column, letters, and steps
+   */
+  public static ImmutableList<Walk> explore(Maze maze, ForkJoinPool pool) {
+    int width = maxWidth(maze);
+
+    AtomicLongArray visited = new AtomicLongArray((int) (((long) maze.rows() * width * 4 + 63) >>> 6));
+    ConcurrentHashMap<Long, SegmentNode> nodes = new ConcurrentHashMap<>();
+
+    List<Discover> starts = new ArrayList<>();
+    for (int column = 0; column < maze.width(0); column ++) {
+      if (maze.letter(0, column) == '|') {
+        starts.add(new Discover(maze, visited, width, nodes, 0, column, DOWN));
+      }
+    }
+
+    pool.invoke(new RecursiveAction() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected void compute() {
+        invokeAll(starts);
+      }
     });
+
+    return new PathJoiner(nodes).walks(starts).stream()
+        .sorted(Comparator.<Walk>comparingInt(walk -> walk.startColumn)
+            .thenComparing(walk -> walk.letters)
+            .thenComparingLong(walk -> walk.steps)
+            .thenComparing(walk -> walk.looped))
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  /**
+   * Segment found by explore, and the keys of the segments that can follow it in exit order.
+   */
+  private static class SegmentNode {
+    private final Segment segment;
+    private final long[] next;
+
+    private SegmentNode(Segment segment, long[] next) {
+      this.segment = segment;
+      this.next = next;
+    }
+  }
+
+  private static long segmentKey(int row, int column, Direction direction, int width) {
+    return ((long) row * width + column) * 4 + direction.ordinal();
+  }
+
+  /**
+   * Fork-join task that scans segments along a path, recording each one as a SegmentNode, until the path ends,
+   * reaches a segment that's already claimed, or forks into more tasks.
+   */
+  private static class Discover extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Maze maze;
+    private final AtomicLongArray visited;
+    private final int width;
+    private final ConcurrentHashMap<Long, SegmentNode> nodes;
+    private final int row;
+    private final int column;
+    private final Direction direction;
+
+    private Discover(
+        Maze maze,
+        AtomicLongArray visited,
+        int width,
+        ConcurrentHashMap<Long, SegmentNode> nodes,
+        int row,
+        int column,
+        Direction direction
+    ) {
+      this.maze = maze;
+      this.visited = visited;
+      this.width = width;
+      this.nodes = nodes;
+      this.row = row;
+      this.column = column;
+      this.direction = direction;
+    }
+
+    private long key() {
+      return segmentKey(row, column, direction, width);
+    }
+
+    @Override
+    protected void compute() {
+      StringBuilder scratch = new StringBuilder();
+      int row = this.row;
+      int column = this.column;
+      Direction direction = this.direction;
+
+      while (markVisited(segmentKey(row, column, direction, width))) {
+        Segment segment = scan(maze, row, column, direction, scratch);
+
+        int endRow = segment.endRow();
+        int endColumn = segment.endColumn();
+        ImmutableList<Direction> exits = maze.letter(endRow, endColumn) == '+'
+            ? exits(maze, endRow, endColumn, direction)
+            : ImmutableList.of();
+
+        long[] next = new long[exits.size()];
+        for (int i = 0; i < next.length; i ++) {
+          Direction exit = exits.get(i);
+          next[i] = segmentKey(endRow + rowStep(exit), endColumn + columnStep(exit), exit, width);
+        }
+        nodes.put(segmentKey(row, column, direction, width), new SegmentNode(segment, next));
+
+        if (exits.isEmpty()) {
+          return;
+        }
+
+        if (exits.size() > 1) {
+          List<Discover> forks = new ArrayList<>();
+          for (Direction exit : exits) {
+            forks.add(new Discover(
+                maze, visited, width, nodes, endRow + rowStep(exit), endColumn + columnStep(exit), exit));
+          }
+
+          invokeAll(forks);
+          return;
+        }
+
+        direction = exits.get(0);
+        row = endRow + rowStep(direction);
+        column = endColumn + columnStep(direction);
+      }
+    }
+
+    /**
+     * Claims the segment with the given key, returning false if another task already has.
+     */
+    private boolean markVisited(long bit) {
+      int word = (int) (bit >>> 6);
+      long mask = 1L << bit;
+
+      while (true) {
+        long current = visited.get(word);
+        if ((current & mask) != 0) {
+          return false;
+        }
+        if (visited.compareAndSet(word, current, current | mask)) {
+          return true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Joins segments into paths, depth first with an explicit stack.  The paths that continue from a segment are
+   * memoized unless one of them was cut short by a loop back into the path that reached it, since those depend on
+   * how the segment was reached.
+   */
+  private static class PathJoiner {
+    private final Map<Long, SegmentNode> nodes;
+    private final Map<Long, List<Walk>> memo = new HashMap<>();
+    private final Set<Long> onPath = new HashSet<>();
+
+    private PathJoiner(Map<Long, SegmentNode> nodes) {
+      this.nodes = nodes;
+    }
+
+    /**
+     * Paths from the segment being joined, and whether any of them looped back into the path that reached it.
+     */
+    private class Frame {
+      private final long key;
+      private final SegmentNode node;
+      private final List<Walk> suffixes = new ArrayList<>();
+      private boolean cut;
+      private int nextExit;
+
+      private Frame(long key) {
+        this.key = key;
+        this.node = nodes.get(key);
+      }
+    }
+
+    private List<Walk> walks(List<Discover> starts) {
+      List<Walk> walks = new ArrayList<>();
+      for (Discover start : starts) {
+        for (Walk suffix : suffixes(start.key())) {
+          walks.add(new Walk(start.column, suffix.letters, suffix.steps, suffix.looped));
+        }
+      }
+      return walks;
+    }
+
+    /**
+     * Every path starting with the given segment, with startColumn left as 0.
+     */
+    private List<Walk> suffixes(long start) {
+      Deque<Frame> stack = new ArrayDeque<>();
+      stack.push(new Frame(start));
+      onPath.add(start);
+      List<Walk> result = null;
+
+      while (!stack.isEmpty()) {
+        Frame frame = stack.peek();
+
+        if (frame.nextExit < frame.node.next.length) {
+          long key = frame.node.next[frame.nextExit ++];
+
+          if (onPath.contains(key)) {
+            frame.suffixes.add(new Walk(0, "", 0, true));
+            frame.cut = true;
+          } else if (memo.containsKey(key)) {
+            frame.suffixes.addAll(memo.get(key));
+          } else {
+            stack.push(new Frame(key));
+            onPath.add(key);
+          }
+          continue;
+        }
+
+        Segment segment = frame.node.segment;
+        List<Walk> walks = new ArrayList<>();
+        if (frame.node.next.length == 0) {
+          walks.add(new Walk(0, segment.letters, segment.length, false));
+        }
+        for (Walk suffix : frame.suffixes) {
+          walks.add(new Walk(0, segment.letters + suffix.letters, segment.length + suffix.steps, suffix.looped));
+        }
+
+        stack.pop();
+        onPath.remove(frame.key);
+        if (!frame.cut) {
+          memo.put(frame.key, walks);
+        }
+
+        Frame parent = stack.peek();
+        if (parent == null) {
+          result = walks;
+        } else {
+          parent.suffixes.addAll(walks);
+          parent.cut |= frame.cut;
+        }
+      }
+
+      return result;
+    }
+  }
+
+  public static String letters(ImmutableList<String> lines) {
+    return letters(new CharMaze(parse(lines)));
+  }
+
+  public static String letters(Maze maze) {
+    return new CompiledPath(compile(maze)).letters();
   }
 
   public static int steps(ImmutableList<String> lines) {
-    char[][] maze = parse(lines);
-    return traverse(maze, 0, (state, accumulator) -> accumulator + 1);
+    return Math.toIntExact(steps(new CharMaze(parse(lines))));
+  }
+
+  public static long steps(Maze maze) {
+    return new CompiledPath(compile(maze)).steps();
   }
 
   public static String path(ImmutableList<String> lines) {
     char[][] maze = parse(lines);
 
-    char[][] buffer = new char[maze.length][maze[0].length];
+    int width = Arrays.stream(maze).mapToInt(row -> row.length).max().orElse(0);
+    char[][] buffer = new char[maze.length][width];
     for (int row = 0; row < buffer.length; row ++) {
       for (int column = 0; column < buffer[row].length; column++) {
         buffer[row][column] = ' ';
       }
     }
 
-    char[][] visited = traverse(maze, buffer, (state, accumulator) -> {
-      char letter = state.position.letter(maze);
-      if (letter == ' ') {
-        letter = '.';
-      }
+    traverse(new CharMaze(maze), (row, column, letter, direction) -> buffer[row][column] = letter);
 
-      accumulator[state.position.row][state.position.column] = letter;
-      return accumulator;
-    });
-
-    return Arrays.stream(visited)
+    return Arrays.stream(buffer)
         .map(String::new)
         .collect(Collectors.joining("\n"));
   }
 
   public static State findStart(char[][] maze) {
-    for (int i = 0; i < maze[0].length; i ++) {
-      if (maze[0][i] == '|') {
+    return findStart(new CharMaze(maze));
+  }
+
+  public static State findStart(Maze maze) {
+    for (int i = 0; i < maze.width(0); i ++) {
+      if (maze.letter(0, i) == '|') {
         return new State(new Position(0, i), DOWN);
       }
     }
@@ -235,11 +1027,12 @@ public class Day19 {
 
   public static void main(String[] args) throws IOException {
     File file = new File(Resources.getResource("day19.txt").getFile());
-    ImmutableList<String> lines = ImmutableList.copyOf(Files.readLines(file, Charsets.UTF_8));
 
-    System.out.println(path(lines));
+    try (MappedMaze maze = MappedMaze.open(file.toPath())) {
+      CompiledPath path = new CompiledPath(compile(maze));
 
-    System.out.println("Part 1: " + letters(lines));
-    System.out.println("Part 2: " + steps(lines));
+      System.out.println("Part 1: " + path.letters());
+      System.out.println("Part 2: " + path.steps());
+    }
   }
 }
@@ -10,20 +10,28 @@ import com.google.common.io.Resources;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
 import java.util.function.Predicate;
 import java.util.function.ToIntFunction;
 import java.util.function.ToLongFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 public class Day20 {
@@ -191,13 +199,109 @@ public class Day20 {
     }
   }
 
+  /**
+   * Long-term distance of a particle from the origin.  Along each axis the position after t ticks is
+   * p + v t + a t (t + 1) / 2, which eventually has the sign of its first non-zero coefficient.  Past that point
+   * twice the Manhattan distance is the quadratic a2 t^2 + b2 t + c2, so particles compare by those coefficients in
+   * order, then by id.
+   */
+  public static class Asymptote implements Comparable<Asymptote> {
+    public final int id;
+    public final long a2;
+    public final long b2;
+    public final long c2;
+
+    public Asymptote(int id, long a2, long b2, long c2) {
+      this.id = id;
+      this.a2 = a2;
+      this.b2 = b2;
+      this.c2 = c2;
+    }
+
+    public static Asymptote of(Particle particle) {
+      long a2 = 0;
+      long b2 = 0;
+      long c2 = 0;
+
+      long[][] axes = {
+          {particle.position.x, particle.velocity.x, particle.acceleration.x},
+          {particle.position.y, particle.velocity.y, particle.acceleration.y},
+          {particle.position.z, particle.velocity.z, particle.acceleration.z}
+      };
+
+      for (long[] axis : axes) {
+        long position = axis[0];
+        long velocity = axis[1];
+        long acceleration = axis[2];
+
+        // Twice the position is a t^2 + (2v + a) t + 2p.
+        long sign = Long.signum(acceleration);
+        if (sign == 0) {
+          sign = Long.signum(2 * velocity + acceleration);
+        }
+        if (sign == 0) {
+          sign = Long.signum(position);
+        }
+
+        a2 += sign * acceleration;
+        b2 += sign * (2 * velocity + acceleration);
+        c2 += sign * 2 * position;
+      }
+
+      return new Asymptote(particle.id, a2, b2, c2);
+    }
+
+    @Override
+    public int compareTo(Asymptote other) {
+      int compare = Long.compare(a2, other.a2);
+      if (compare != 0) {
+        return compare;
+      }
+
+      compare = Long.compare(b2, other.b2);
+      if (compare != 0) {
+        return compare;
+      }
+
+      compare = Long.compare(c2, other.c2);
+      if (compare != 0) {
+        return compare;
+      }
+
+      return Integer.compare(id, other.id);
+    }
+  }
+
   /**
    * Returns the particle that will stay closest to the origin in the long-term.
    *
-   * @param particles Particles to simulate
+   * @param particles Particles to compare
    * @return The id of the particle that will stay closes to the origin long-term.
    */
   public static int closestParticle(ImmutableSet<Particle> particles) {
+    return closestParticle(particles.stream());
+  }
+
+  /**
+   * Returns the particle that will stay closest to the origin in the long-term, without simulating.  Only the
+   * closest particle so far is kept, so the stream can be read straight from input.
+   *
+   * @param particles Particles to compare
+   * @return The id of the particle that will stay closes to the origin long-term.
+   */
+  public static int closestParticle(Stream<Particle> particles) {
+    return particles
+        .map(Asymptote::of)
+        .min(Comparator.naturalOrder())
+        .orElseThrow(() -> new IllegalArgumentException("No particles"))
+        .id;
+  }
+
+  /**
+   * Finds the closest particle by simulating until the closest particle is also the slowest and least accelerated.
+   * Kept as a reference for closestParticle.
+   */
+  public static int closestParticleReference(ImmutableSet<Particle> particles) {
     // Keep simulating the particles until the closest particle also has
     // the slowest velocity and acceleration away from the origin
 
@@ -236,7 +340,660 @@ public class Day20 {
         .collect(ImmutableSet.toImmutableSet());
   }
 
+  /**
+   * Collision between two particles at the start of a tick.
+   */
+  private static class Collision implements Comparable<Collision> {
+    private final long tick;
+    private final int first;
+    private final int second;
+
+    private Collision(long tick, int first, int second) {
+      this.tick = tick;
+      this.first = first;
+      this.second = second;
+    }
+
+    @Override
+    public int compareTo(Collision other) {
+      return Long.compare(tick, other.tick);
+    }
+  }
+
+  /**
+   * Returns the number of particles left after all collisions.  Instead of simulating ticks, solves for the first
+   * tick each pair of particles share a position and removes particles in tick order, skipping collisions with
+   * particles that were already destroyed.
+   *
+   * @param particles Particles to collide
+   * @return Number of particles that never collide
+   */
   public static int afterCollisions(ImmutableSet<Particle> particles) {
+    Particle[] array = particles.toArray(new Particle[0]);
+
+    PriorityQueue<Collision> collisions = new PriorityQueue<>();
+    for (int i = 0; i < array.length; i ++) {
+      for (int j = i + 1; j < array.length; j ++) {
+        long tick = firstCollision(array[i], array[j]);
+        if (tick >= 0) {
+          collisions.add(new Collision(tick, i, j));
+        }
+      }
+    }
+
+    boolean[] destroyed = new boolean[array.length];
+    int remaining = array.length;
+    List<Collision> sameTick = new ArrayList<>();
+
+    while (!collisions.isEmpty()) {
+      // Every particle in a collision this tick is destroyed, even if it collides with more than one particle.
+      long tick = collisions.peek().tick;
+      while (!collisions.isEmpty() && collisions.peek().tick == tick) {
+        Collision collision = collisions.poll();
+        if (!destroyed[collision.first] && !destroyed[collision.second]) {
+          sameTick.add(collision);
+        }
+      }
+
+      for (Collision collision : sameTick) {
+        for (int particle : new int[]{collision.first, collision.second}) {
+          if (!destroyed[particle]) {
+            destroyed[particle] = true;
+            remaining --;
+          }
+        }
+      }
+      sameTick.clear();
+    }
+
+    return remaining;
+  }
+
+  /**
+   * Returns the first tick the two particles share a position, or -1 if they never do.
+   */
+  static long firstCollision(Particle first, Particle second) {
+    // Twice the difference in position along an axis after t ticks is a t^2 + (2v + a) t + 2p.
+    long[][] axes = {
+        quadratic(first.position.x - second.position.x, first.velocity.x - second.velocity.x,
+            first.acceleration.x - second.acceleration.x),
+        quadratic(first.position.y - second.position.y, first.velocity.y - second.velocity.y,
+            first.acceleration.y - second.acceleration.y),
+        quadratic(first.position.z - second.position.z, first.velocity.z - second.velocity.z,
+            first.acceleration.z - second.acceleration.z)
+    };
+
+    // Candidate ticks come from any axis that isn't always equal.  If every axis is, the particles start together.
+    long[] candidates = {0};
+    for (long[] axis : axes) {
+      if (axis[0] != 0 || axis[1] != 0 || axis[2] != 0) {
+        candidates = roots(axis[0], axis[1], axis[2]);
+        break;
+      }
+    }
+
+    for (long tick : candidates) {
+      boolean collides = true;
+      for (long[] axis : axes) {
+        if (axis[0] * tick * tick + axis[1] * tick + axis[2] != 0) {
+          collides = false;
+          break;
+        }
+      }
+
+      if (collides) {
+        return tick;
+      }
+    }
+
+    return -1;
+  }
+
+  private static long[] quadratic(long position, long velocity, long acceleration) {
+    return new long[]{acceleration, 2 * velocity + acceleration, 2 * position};
+  }
+
+  /**
+   * Returns the non-negative integer roots of a t^2 + b t + c = 0 in increasing order.  The polynomial must not be
+   * zero everywhere.
+   */
+  private static long[] roots(long a, long b, long c) {
+    if (a == 0) {
+      if (b == 0 || c % b != 0 || -c / b < 0) {
+        return new long[0];
+      }
+      return new long[]{-c / b};
+    }
+
+    long discriminant = b * b - 4 * a * c;
+    if (discriminant < 0) {
+      return new long[0];
+    }
+
+    long root = (long) Math.sqrt((double) discriminant);
+    while (root * root > discriminant) {
+      root --;
+    }
+    while ((root + 1) * (root + 1) <= discriminant) {
+      root ++;
+    }
+    if (root * root != discriminant) {
+      return new long[0];
+    }
+
+    return LongStream.of(-b - root, -b + root)
+        .filter(numerator -> numerator % (2 * a) == 0)
+        .map(numerator -> numerator / (2 * a))
+        .filter(tick -> tick >= 0)
+        .sorted()
+        .distinct()
+        .toArray();
+  }
+
+  /**
+   * Particles stored as parallel primitive arrays and updated in place.  Collisions are found with an
+   * open-addressing table of particle indexes keyed by position, and destroyed particles are removed by swapping the
+   * last live particle into their slot, so ticks don't allocate.
+   */
+  public static class ParticleSystem {
+    private int count;
+    private final int[] ids;
+    private final long[] px;
+    private final long[] py;
+    private final long[] pz;
+    private final long[] vx;
+    private final long[] vy;
+    private final long[] vz;
+    private final long[] ax;
+    private final long[] ay;
+    private final long[] az;
+
+    private final int[] table;
+    private final int mask;
+    private final boolean[] collided;
+
+    public ParticleSystem(Collection<Particle> particles) {
+      this.count = particles.size();
+      this.ids = new int[count];
+      this.px = new long[count];
+      this.py = new long[count];
+      this.pz = new long[count];
+      this.vx = new long[count];
+      this.vy = new long[count];
+      this.vz = new long[count];
+      this.ax = new long[count];
+      this.ay = new long[count];
+      this.az = new long[count];
+
+      int i = 0;
+      for (Particle particle : particles) {
+        ids[i] = particle.id;
+        px[i] = particle.position.x;
+        py[i] = particle.position.y;
+        pz[i] = particle.position.z;
+        vx[i] = particle.velocity.x;
+        vy[i] = particle.velocity.y;
+        vz[i] = particle.velocity.z;
+        ax[i] = particle.acceleration.x;
+        ay[i] = particle.acceleration.y;
+        az[i] = particle.acceleration.z;
+        i ++;
+      }
+
+      // At most half full, so probes stay short.
+      int tableSize = Integer.highestOneBit(Math.max(count, 1)) * 4;
+      this.table = new int[tableSize];
+      this.mask = tableSize - 1;
+      this.collided = new boolean[count];
+    }
+
+    public int size() {
+      return count;
+    }
+
+    /**
+     * Returns the particle currently stored at the given index.  Indexes change as particles are removed.
+     *
+     * @param index Index between 0 and size() - 1
+     * @return Particle at the index
+     */
+    public Particle get(int index) {
+      return new Particle(
+          ids[index],
+          new Vector3D(px[index], py[index], pz[index]),
+          new Vector3D(vx[index], vy[index], vz[index]),
+          new Vector3D(ax[index], ay[index], az[index]));
+    }
+
+    /**
+     * Advances every particle by one tick.
+     */
+    public void tick() {
+      for (int i = 0; i < count; i ++) {
+        vx[i] += ax[i];
+        vy[i] += ay[i];
+        vz[i] += az[i];
+        px[i] += vx[i];
+        py[i] += vy[i];
+        pz[i] += vz[i];
+      }
+    }
+
+    /**
+     * Removes every particle that shares its position with another particle.
+     *
+     * @return Number of particles removed
+     */
+    public int removeCollisions() {
+      Arrays.fill(table, -1);
+
+      boolean anyCollided = false;
+      for (int i = 0; i < count; i ++) {
+        int slot = hash(px[i], py[i], pz[i]) & mask;
+
+        while (table[slot] != -1) {
+          int other = table[slot];
+          if (px[other] == px[i] && py[other] == py[i] && pz[other] == pz[i]) {
+            collided[other] = true;
+            collided[i] = true;
+            anyCollided = true;
+            break;
+          }
+          slot = (slot + 1) & mask;
+        }
+
+        if (!collided[i]) {
+          table[slot] = i;
+        }
+      }
+
+      if (!anyCollided) {
+        return 0;
+      }
+
+      int before = count;
+      int i = 0;
+      while (i < count) {
+        if (collided[i]) {
+          collided[i] = false;
+          count --;
+          move(count, i);
+          collided[i] = collided[count];
+          collided[count] = false;
+        } else {
+          i ++;
+        }
+      }
+
+      return before - count;
+    }
+
+    private void move(int from, int to) {
+      ids[to] = ids[from];
+      px[to] = px[from];
+      py[to] = py[from];
+      pz[to] = pz[from];
+      vx[to] = vx[from];
+      vy[to] = vy[from];
+      vz[to] = vz[from];
+      ax[to] = ax[from];
+      ay[to] = ay[from];
+      az[to] = az[from];
+    }
+
+    static int hash(long x, long y, long z) {
+      long h = x * 0x9E3779B97F4A7C15L + y * 0xC2B2AE3D27D4EB4FL + z * 0x165667B19E3779F9L;
+      h ^= h >>> 32;
+      h *= 0xD6E8FEB86659FD93L;
+      return (int) (h ^ h >>> 29);
+    }
+  }
+
+  /**
+   * Uniform grid over particle positions for finding particles at the same position or within a distance of each
+   * other.  Cells are kept in an open-addressing table keyed by cell coordinates, and each cell's particles are a
+   * linked list threaded through next.  Particles are indexed by id, and only particles that change cells are
+   * relinked as they move.  Rebuilding inserts particles in parallel - cells are claimed and lists pushed with
+   * compare-and-set, so the table and lists need no locks.
+   */
+  public static class SpatialIndex {
+    private static final int EMPTY = 0;
+    private static final int CLAIMED = 1;
+    private static final int READY = 2;
+
+    private final long cellSize;
+
+    private final long[] x;
+    private final long[] y;
+    private final long[] z;
+    private final boolean[] present;
+    private final int[] next;
+    private final int[] slotOf;
+    private final int[] seen;
+    private int generation;
+
+    private AtomicIntegerArray states;
+    private AtomicIntegerArray heads;
+    private long[] cellX;
+    private long[] cellY;
+    private long[] cellZ;
+    private int mask;
+    private int usedSlots;
+
+    /**
+     * Constructs an empty index.
+     *
+     * @param cellSize Width of each cell.  Radius queries up to about this distance look at 27 cells.
+     * @param capacity One more than the largest particle id
+     */
+    public SpatialIndex(long cellSize, int capacity) {
+      this.cellSize = cellSize;
+      this.x = new long[capacity];
+      this.y = new long[capacity];
+      this.z = new long[capacity];
+      this.present = new boolean[capacity];
+      this.next = new int[capacity];
+      this.slotOf = new int[capacity];
+      this.seen = new int[capacity];
+
+      allocateTable(capacity);
+    }
+
+    /**
+     * Allocates an empty table with room for at least four times the given number of cells, so there are plenty of
+     * inserts before it's half full again.
+     */
+    private void allocateTable(int cells) {
+      int tableSize = (cells <= 1 ? 1 : Integer.highestOneBit(cells - 1) << 1) * 4;
+
+      this.states = new AtomicIntegerArray(tableSize);
+      this.heads = new AtomicIntegerArray(tableSize);
+      this.cellX = new long[tableSize];
+      this.cellY = new long[tableSize];
+      this.cellZ = new long[tableSize];
+      this.mask = tableSize - 1;
+      this.usedSlots = 0;
+
+      for (int slot = 0; slot < tableSize; slot ++) {
+        heads.set(slot, -1);
+      }
+    }
+
+    /**
+     * Replaces the contents of the index with the particles in the system, inserting them in parallel.
+     *
+     * @param system Particles to index
+     * @param pool Pool to insert in
+     */
+    public void rebuild(ParticleSystem system, ForkJoinPool pool) {
+      Arrays.fill(present, false);
+      allocateTable(system.size());
+
+      usedSlots = pool.submit(() -> IntStream.range(0, system.size())
+          .parallel()
+          .map(i -> {
+            int id = system.ids[i];
+            x[id] = system.px[i];
+            y[id] = system.py[i];
+            z[id] = system.pz[i];
+            present[id] = true;
+            return insert(id) ? 1 : 0;
+          })
+          .sum()).join();
+    }
+
+    /**
+     * Moves every particle in the system to its current position, adding particles that aren't indexed yet and
+     * removing indexed particles that are no longer in the system.
+     *
+     * @param system Particles to index
+     */
+    public void update(ParticleSystem system) {
+      generation ++;
+
+      for (int i = 0; i < system.size(); i ++) {
+        int id = system.ids[i];
+        seen[id] = generation;
+        move(id, system.px[i], system.py[i], system.pz[i]);
+      }
+
+      for (int id = 0; id < present.length; id ++) {
+        if (present[id] && seen[id] != generation) {
+          remove(id);
+        }
+      }
+    }
+
+    /**
+     * Moves a particle to the given position, adding it if it isn't indexed.
+     */
+    public void move(int id, long newX, long newY, long newZ) {
+      if (present[id]) {
+        if (cell(newX) == cell(x[id]) && cell(newY) == cell(y[id]) && cell(newZ) == cell(z[id])) {
+          x[id] = newX;
+          y[id] = newY;
+          z[id] = newZ;
+          return;
+        }
+
+        remove(id);
+      }
+
+      // Keep the table at most half full.  Cells keep their slot when they empty, so rehash to drop them.
+      if ((usedSlots + 1) * 2 > mask + 1) {
+        rehash();
+      }
+
+      x[id] = newX;
+      y[id] = newY;
+      z[id] = newZ;
+      present[id] = true;
+      if (insert(id)) {
+        usedSlots ++;
+      }
+    }
+
+    /**
+     * Removes a particle from the index.
+     */
+    public void remove(int id) {
+      if (!present[id]) {
+        return;
+      }
+
+      int slot = slotOf[id];
+      int previous = -1;
+      for (int particle = heads.get(slot); particle != id; particle = next[particle]) {
+        previous = particle;
+      }
+
+      if (previous == -1) {
+        heads.set(slot, next[id]);
+      } else {
+        next[previous] = next[id];
+      }
+      present[id] = false;
+    }
+
+    /**
+     * Rebuilds the table with only the cells that still hold particles, sized from how many of those there are.
+     */
+    private void rehash() {
+      int liveCells = 0;
+      for (int slot = 0; slot <= mask; slot ++) {
+        if (heads.get(slot) != -1) {
+          liveCells ++;
+        }
+      }
+
+      allocateTable(liveCells + 1);
+      for (int id = 0; id < present.length; id ++) {
+        if (present[id] && insert(id)) {
+          usedSlots ++;
+        }
+      }
+    }
+
+    /**
+     * Pushes the particle onto its cell's list, claiming a slot for the cell if it doesn't have one yet.  Safe to
+     * call from several threads for different particles.  Returns whether a new cell was claimed.
+     */
+    private boolean insert(int id) {
+      long cx = cell(x[id]);
+      long cy = cell(y[id]);
+      long cz = cell(z[id]);
+      int slot = hash(cx, cy, cz) & mask;
+      boolean claimed = false;
+
+      while (true) {
+        int state = states.get(slot);
+
+        if (state == EMPTY) {
+          if (states.compareAndSet(slot, EMPTY, CLAIMED)) {
+            cellX[slot] = cx;
+            cellY[slot] = cy;
+            cellZ[slot] = cz;
+            states.set(slot, READY);
+            claimed = true;
+          }
+        } else if (state == READY) {
+          if (cellX[slot] == cx && cellY[slot] == cy && cellZ[slot] == cz) {
+            int head;
+            do {
+              head = heads.get(slot);
+              next[id] = head;
+            } while (!heads.compareAndSet(slot, head, id));
+
+            slotOf[id] = slot;
+            return claimed;
+          }
+
+          slot = (slot + 1) & mask;
+        }
+        // CLAIMED - another thread is writing the cell's coordinates, so check the slot again.
+      }
+    }
+
+    /**
+     * Returns the slot holding the given cell, or -1 if no particle has been in it.
+     */
+    private int find(long cx, long cy, long cz) {
+      int slot = hash(cx, cy, cz) & mask;
+
+      while (states.get(slot) != EMPTY) {
+        if (cellX[slot] == cx && cellY[slot] == cy && cellZ[slot] == cz) {
+          return slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+
+      return -1;
+    }
+
+    private long cell(long coordinate) {
+      return Math.floorDiv(coordinate, cellSize);
+    }
+
+    /**
+     * Calls the action with every other particle at exactly the same position as the given particle.
+     *
+     * @param id Particle to look around
+     * @param action Called with the id of each particle found
+     */
+    public void forEachAtPosition(int id, IntConsumer action) {
+      for (int particle = heads.get(slotOf[id]); particle != -1; particle = next[particle]) {
+        if (particle != id && x[particle] == x[id] && y[particle] == y[id] && z[particle] == z[id]) {
+          action.accept(particle);
+        }
+      }
+    }
+
+    /**
+     * Calls the action with every other particle within the given Manhattan distance of the given particle.
+     *
+     * @param id Particle to look around
+     * @param distance Largest distance to report
+     * @param action Called with the id of each particle found
+     */
+    public void forEachWithin(int id, long distance, IntConsumer action) {
+      long reach = (distance + cellSize - 1) / cellSize;
+      long cx = cell(x[id]);
+      long cy = cell(y[id]);
+      long cz = cell(z[id]);
+
+      for (long dx = -reach; dx <= reach; dx ++) {
+        for (long dy = -reach; dy <= reach; dy ++) {
+          for (long dz = -reach; dz <= reach; dz ++) {
+            int slot = find(cx + dx, cy + dy, cz + dz);
+            if (slot == -1) {
+              continue;
+            }
+
+            for (int particle = heads.get(slot); particle != -1; particle = next[particle]) {
+              long particleDistance = Math.abs(x[particle] - x[id])
+                  + Math.abs(y[particle] - y[id])
+                  + Math.abs(z[particle] - z[id]);
+
+              if (particle != id && particleDistance <= distance) {
+                action.accept(particle);
+              }
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the number of pairs of indexed particles within the given Manhattan distance of each other.
+     *
+     * @param distance Largest distance to count
+     * @return Number of pairs
+     */
+    public long countPairsWithin(long distance) {
+      long[] count = new long[1];
+      for (int id = 0; id < present.length; id ++) {
+        if (present[id]) {
+          int first = id;
+          forEachWithin(id, distance, other -> {
+            if (other > first) {
+              count[0] ++;
+            }
+          });
+        }
+      }
+
+      return count[0];
+    }
+
+    private static int hash(long x, long y, long z) {
+      return ParticleSystem.hash(x, y, z);
+    }
+  }
+
+  /**
+   * Counts particles left after the given number of ticks, removing collisions at the start of each tick like
+   * afterCollisionsReference but on a ParticleSystem.
+   *
+   * @param particles Particles to collide
+   * @param ticks Number of ticks to simulate
+   * @return Number of particles left
+   */
+  public static int afterCollisionsSimulated(ImmutableSet<Particle> particles, int ticks) {
+    ParticleSystem system = new ParticleSystem(particles);
+
+    for (int i = 0; i < ticks; i ++) {
+      system.removeCollisions();
+      system.tick();
+    }
+
+    return system.size();
+  }
+
+  /**
+   * Counts particles left after simulating 10,000 ticks, grouping particles by position each tick.  Kept as a
+   * reference for afterCollisions.
+   */
+  public static int afterCollisionsReference(ImmutableSet<Particle> particles) {
     for (int i = 0; i < 10000; i ++) {
       particles = particles.stream()
           // Group by position
@@ -8,9 +8,13 @@ import com.google.common.io.Resources;
 
 import java.io.File;
 import java.io.IOException;
+import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 public class Day21 {
     private static final char[][] START = new char[][]{
@@ -55,7 +59,7 @@ public class Day21 {
       return false;
     }
 
-    private static char[][] rotate(char[][] pattern) {
+    static char[][] rotate(char[][] pattern) {
       int size = pattern.length;
       char[][] rotated = new char[size][size];
 
@@ -68,7 +72,7 @@ public class Day21 {
       return rotated;
     }
 
-    private static char[][] flipHorizontal(char[][] pattern) {
+    static char[][] flipHorizontal(char[][] pattern) {
       int size = pattern.length;
       char[][] flipped = new char[size][size];
 
@@ -166,7 +170,393 @@ public class Day21 {
     }
   }
 
+  /**
+   * Rules compiled into lookup tables indexed by a segment's bit pattern, with every rotation and flip of each rule's
+   * pattern filled in.  Bit row * size + column of a pattern is set if that pixel is on.
+   */
+  public static class RuleBook {
+    private final int[] twoByTwo = new int[1 << 4];
+    private final int[] threeByThree = new int[1 << 9];
+
+    public RuleBook(ImmutableList<Rule> rules) {
+      Arrays.fill(twoByTwo, -1);
+      Arrays.fill(threeByThree, -1);
+
+      // Walk the rules backwards so the first matching rule wins, like findReplacement.
+      for (Rule rule : rules.reverse()) {
+        int[] table = rule.pattern.length == 2 ? twoByTwo : threeByThree;
+        int replacement = toBits(rule.replacement);
+
+        char[][] variant = rule.pattern;
+        for (int flip = 0; flip < 2; flip ++) {
+          for (int rotation = 0; rotation < 4; rotation ++) {
+            table[toBits(variant)] = replacement;
+            variant = Rule.rotate(variant);
+          }
+          variant = Rule.flipHorizontal(variant);
+        }
+      }
+    }
+
+    static int toBits(char[][] pattern) {
+      int bits = 0;
+      for (int row = 0; row < pattern.length; row ++) {
+        for (int column = 0; column < pattern.length; column ++) {
+          if (pattern[row][column] == '#') {
+            bits |= 1 << (row * pattern.length + column);
+          }
+        }
+      }
+
+      return bits;
+    }
+
+    /**
+     * Returns the replacement for a segment with the given size and pattern.
+     *
+     * @param size Size of the segment, 2 or 3
+     * @param pattern Segment's bit pattern
+     * @return Bit pattern of the size + 1 replacement
+     */
+    public int replacement(int size, int pattern) {
+      int replacement = size == 2 ? twoByTwo[pattern] : threeByThree[pattern];
+      if (replacement == -1) {
+        throw new IllegalStateException("No replacement");
+      }
+
+      return replacement;
+    }
+  }
+
+  /**
+   * Square grid of pixels stored as bits.  Each row starts on a new long, so rows never share a word.
+   */
+  public static class BitGrid {
+    public final int size;
+    private final int stride;
+    private final long[] words;
+
+    public BitGrid(int size) {
+      this.size = size;
+      this.stride = (size + 63) >>> 6;
+      this.words = new long[size * stride];
+    }
+
+    public static BitGrid fromChars(char[][] grid) {
+      BitGrid bitGrid = new BitGrid(grid.length);
+      for (int row = 0; row < grid.length; row ++) {
+        for (int column = 0; column < grid.length; column ++) {
+          if (grid[row][column] == '#') {
+            bitGrid.set(row, column);
+          }
+        }
+      }
+
+      return bitGrid;
+    }
+
+    public boolean get(int row, int column) {
+      return (words[row * stride + (column >>> 6)] & (1L << column)) != 0;
+    }
+
+    private void set(int row, int column) {
+      words[row * stride + (column >>> 6)] |= 1L << column;
+    }
+
+    /**
+     * Returns the bit pattern of the segment with the given size and top left corner.
+     */
+    private int segment(int row, int column, int segmentSize) {
+      int pattern = 0;
+      for (int r = 0; r < segmentSize; r ++) {
+        for (int c = 0; c < segmentSize; c ++) {
+          if (get(row + r, column + c)) {
+            pattern |= 1 << (r * segmentSize + c);
+          }
+        }
+      }
+
+      return pattern;
+    }
+
+    /**
+     * Writes a replacement pattern with its top left corner at the given row and column.
+     */
+    private void write(int row, int column, int replacementSize, int replacement) {
+      for (int r = 0; r < replacementSize; r ++) {
+        for (int c = 0; c < replacementSize; c ++) {
+          if ((replacement & 1 << (r * replacementSize + c)) != 0) {
+            set(row + r, column + c);
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the grid after one iteration of enhancement.
+     *
+     * @param rules Compiled rules
+     * @return Enhanced grid
+     */
+    public BitGrid expand(RuleBook rules) {
+      BitGrid newGrid = new BitGrid(expandedSize());
+      expandRows(rules, newGrid, 0, size / divisionSize());
+
+      return newGrid;
+    }
+
+    /**
+     * Returns the grid after one iteration of enhancement, splitting the rows of segments into bands that are
+     * expanded in parallel.  Rows never share a word, so each band writes to its own part of the new grid.
+     *
+     * @param rules Compiled rules
+     * @param pool Pool to expand the bands in
+     * @return Enhanced grid, identical to expand
+     */
+    public BitGrid expandParallel(RuleBook rules, ForkJoinPool pool) {
+      BitGrid newGrid = new BitGrid(expandedSize());
+      pool.invoke(new ExpandBand(rules, newGrid, 0, size / divisionSize()));
+
+      return newGrid;
+    }
+
+    /**
+     * Expands rows of segments from startRow up to endRow into newGrid.
+     */
+    private void expandRows(RuleBook rules, BitGrid newGrid, int startRow, int endRow) {
+      int divisionSize = divisionSize();
+      int replacementSize = divisionSize + 1;
+      int segments = size / divisionSize;
+
+      for (int row = startRow; row < endRow; row ++) {
+        for (int column = 0; column < segments; column ++) {
+          int pattern = segment(row * divisionSize, column * divisionSize, divisionSize);
+
+          newGrid.write(
+              row * replacementSize,
+              column * replacementSize,
+              replacementSize,
+              rules.replacement(divisionSize, pattern));
+        }
+      }
+    }
+
+    private int divisionSize() {
+      return size % 2 == 0 ? 2 : 3;
+    }
+
+    private int expandedSize() {
+      return size / divisionSize() * (divisionSize() + 1);
+    }
+
+    /**
+     * Fork-join task that expands a band of segment rows, splitting it in half until it's small enough.
+     */
+    private class ExpandBand extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      private static final int MIN_ROWS = 32;
+
+      private final RuleBook rules;
+      private final BitGrid newGrid;
+      private final int startRow;
+      private final int endRow;
+
+      private ExpandBand(RuleBook rules, BitGrid newGrid, int startRow, int endRow) {
+        this.rules = rules;
+        this.newGrid = newGrid;
+        this.startRow = startRow;
+        this.endRow = endRow;
+      }
+
+      @Override
+      protected void compute() {
+        if (endRow - startRow <= MIN_ROWS) {
+          expandRows(rules, newGrid, startRow, endRow);
+          return;
+        }
+
+        int middle = (startRow + endRow) >>> 1;
+        invokeAll(
+            new ExpandBand(rules, newGrid, startRow, middle),
+            new ExpandBand(rules, newGrid, middle, endRow));
+      }
+    }
+
+    public int pixelsOn() {
+      int numOn = 0;
+      for (long word : words) {
+        numOn += Long.bitCount(word);
+      }
+
+      return numOn;
+    }
+
+    /**
+     * Counts the pixels that are on, summing rows in parallel.
+     *
+     * @param pool Pool to count in
+     * @return Pixels on
+     */
+    public int pixelsOnParallel(ForkJoinPool pool) {
+      return pool.submit(() -> IntStream.range(0, size)
+          .parallel()
+          .map(row -> {
+            int numOn = 0;
+            for (int word = row * stride; word < (row + 1) * stride; word ++) {
+              numOn += Long.bitCount(words[word]);
+            }
+            return numOn;
+          })
+          .sum()).join();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+
+      if (!(o instanceof BitGrid)) {
+        return false;
+      }
+
+      BitGrid bitGrid = (BitGrid) o;
+      return size == bitGrid.size && Arrays.equals(words, bitGrid.words);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * size + Arrays.hashCode(words);
+    }
+  }
+
+  /**
+   * Counts pixels without building the grid.  Three iterations turn a 3x3 block into a 9x9 grid, and every division
+   * along the way lines up with the block's edges, so each 3x3 block evolves independently into nine 3x3 blocks.
+   * The grid is tracked as a count of each of the 512 possible 3x3 blocks, and each block's three-step expansion is
+   * computed once.
+   */
+  public static class BlockCounter {
+    private static final int PATTERNS = 1 << 9;
+
+    private final RuleBook rules;
+    /** Nine 3x3 blocks each pattern becomes after three iterations, null until needed. */
+    private final int[][] children = new int[PATTERNS][];
+    /** Pixels on after expanding each pattern zero, one, or two times, -1 until needed. */
+    private final int[][] pixels = new int[3][PATTERNS];
+
+    public BlockCounter(RuleBook rules) {
+      this.rules = rules;
+
+      for (int[] iterationPixels : pixels) {
+        Arrays.fill(iterationPixels, -1);
+      }
+    }
+
+    /**
+     * Returns the number of pixels on after the given number of iterations.  The count passes a long after
+     * about 60 iterations, so it's a BigInteger.
+     *
+     * @param iterations Number of iterations
+     * @return Pixels on
+     */
+    public BigInteger pixelsOn(int iterations) {
+      BigInteger[] counts = new BigInteger[PATTERNS];
+      counts[RuleBook.toBits(START)] = BigInteger.ONE;
+
+      for (int round = 0; round < iterations / 3; round ++) {
+        BigInteger[] newCounts = new BigInteger[PATTERNS];
+
+        for (int pattern = 0; pattern < PATTERNS; pattern ++) {
+          if (counts[pattern] == null) {
+            continue;
+          }
+
+          for (int child : children(pattern)) {
+            newCounts[child] = newCounts[child] == null ? counts[pattern] : newCounts[child].add(counts[pattern]);
+          }
+        }
+
+        counts = newCounts;
+      }
+
+      BigInteger numOn = BigInteger.ZERO;
+      for (int pattern = 0; pattern < PATTERNS; pattern ++) {
+        if (counts[pattern] != null) {
+          numOn = numOn.add(counts[pattern].multiply(BigInteger.valueOf(pixels(pattern, iterations % 3))));
+        }
+      }
+
+      return numOn;
+    }
+
+    private int[] children(int pattern) {
+      if (children[pattern] == null) {
+        BitGrid grid = expand(pattern, 3);
+
+        int[] blocks = new int[9];
+        for (int row = 0; row < 3; row ++) {
+          for (int column = 0; column < 3; column ++) {
+            blocks[row * 3 + column] = grid.segment(row * 3, column * 3, 3);
+          }
+        }
+
+        children[pattern] = blocks;
+      }
+
+      return children[pattern];
+    }
+
+    private int pixels(int pattern, int iterations) {
+      if (pixels[iterations][pattern] == -1) {
+        pixels[iterations][pattern] = expand(pattern, iterations).pixelsOn();
+      }
+
+      return pixels[iterations][pattern];
+    }
+
+    private BitGrid expand(int pattern, int iterations) {
+      BitGrid grid = new BitGrid(3);
+      grid.write(0, 0, 3, pattern);
+
+      for (int iteration = 0; iteration < iterations; iteration ++) {
+        grid = grid.expand(rules);
+      }
+
+      return grid;
+    }
+  }
+
   public static int pixelsOn(ImmutableList<Rule> rules, int iterations) {
+    RuleBook ruleBook = new RuleBook(rules);
+    BitGrid grid = BitGrid.fromChars(START);
+
+    for (int iteration = 0; iteration < iterations; iteration ++) {
+      grid = grid.expand(ruleBook);
+    }
+
+    return grid.pixelsOn();
+  }
+
+  /**
+   * Counts pixels like pixelsOn, expanding and counting the grid in parallel in the given pool.
+   */
+  public static int pixelsOnParallel(ImmutableList<Rule> rules, int iterations, ForkJoinPool pool) {
+    RuleBook ruleBook = new RuleBook(rules);
+    BitGrid grid = BitGrid.fromChars(START);
+
+    for (int iteration = 0; iteration < iterations; iteration ++) {
+      grid = grid.expandParallel(ruleBook, pool);
+    }
+
+    return grid.pixelsOnParallel(pool);
+  }
+
+  /**
+   * Counts pixels by matching every segment against every rule on a char grid.  Kept as a reference for RuleBook
+   * and BitGrid.
+   */
+  public static int pixelsOnReference(ImmutableList<Rule> rules, int iterations) {
     char[][] grid = START;
 
     for (int iteration = 0; iteration < iterations; iteration ++) {
@@ -213,6 +603,6 @@ public class Day21 {
         .collect(ImmutableList.toImmutableList());
 
     System.out.println("Part 1: " + pixelsOn(rules, 5));
-    System.out.println("Part 2: " + pixelsOn(rules, 18));
+    System.out.println("Part 2: " + pixelsOnParallel(rules, 18, ForkJoinPool.commonPool()));
   }
 }
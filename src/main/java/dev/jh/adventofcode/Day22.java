@@ -292,9 +292,207 @@ public class Day22 {
     public boolean isFlagged() {
       return flagged.contains(virus.position);
     }
+
+    public Virus getVirus() {
+      return virus;
+    }
+  }
+
+  /**
+   * Evolved virus simulation on a square byte-per-cell grid centered on the origin.  Node states, directions and
+   * the virus position are primitive ints and each burst is a couple of table lookups, so bursts don't allocate
+   * unless the virus walks off the edge and the grid doubles in size.
+   */
+  public static class DenseEngine {
+    public static final byte CLEAN = 0;
+    public static final byte WEAKENED = 1;
+    public static final byte INFECTED = 2;
+    public static final byte FLAGGED = 3;
+
+    // Directions in clockwise order, so turning right adds 1 and turning left adds 3.
+    private static final Direction[] DIRECTIONS = {UP, RIGHT, DOWN, LEFT};
+    private static final int[] ROW_STEPS = {-1, 0, 1, 0};
+    private static final int[] COLUMN_STEPS = {0, 1, 0, -1};
+
+    // Clean -> Weakened -> Infected -> Flagged -> Clean, turning left, straight, right, and back.
+    private static final byte[] EVOLVED_NEXT = {WEAKENED, INFECTED, FLAGGED, CLEAN};
+    private static final int[] EVOLVED_TURNS = {3, 0, 1, 2};
+
+    // Clean -> Infected turning left, Infected -> Clean turning right.  The other states never occur.
+    private static final byte[] SIMPLE_NEXT = {INFECTED, WEAKENED, CLEAN, FLAGGED};
+    private static final int[] SIMPLE_TURNS = {3, 0, 1, 2};
+
+    private static final int MIN_SIZE = 64;
+
+    private final byte[] next;
+    private final int[] turns;
+
+    private byte[] cells;
+    private int size;
+    private int offset;
+
+    private int row;
+    private int column;
+    private int direction;
+
+    private DenseEngine(Grid grid, byte[] next, int[] turns) {
+      this.next = next;
+      this.turns = turns;
+
+      int extent = 0;
+      for (Node node : grid.infectedNodes) {
+        extent = Math.max(extent, Math.max(Math.abs(node.row), Math.abs(node.column)));
+      }
+
+      this.size = MIN_SIZE;
+      while (size < 2 * extent + 2) {
+        size *= 2;
+      }
+      this.offset = size / 2;
+      this.cells = new byte[size * size];
+
+      for (Node node : grid.infectedNodes) {
+        cells[index(node.row, node.column)] = INFECTED;
+      }
+    }
+
+    /**
+     * Returns an engine for the evolved virus starting at the center of the grid facing up.
+     *
+     * @param grid Initially infected nodes
+     * @return Evolved engine
+     */
+    public static DenseEngine evolved(Grid grid) {
+      return new DenseEngine(grid, EVOLVED_NEXT, EVOLVED_TURNS);
+    }
+
+    /**
+     * Returns an engine for the original virus, which only cleans and infects nodes.
+     *
+     * @param grid Initially infected nodes
+     * @return Part 1 engine
+     */
+    public static DenseEngine simple(Grid grid) {
+      return new DenseEngine(grid, SIMPLE_NEXT, SIMPLE_TURNS);
+    }
+
+    /**
+     * Performs the given number of bursts, returning how many of them infected a node.
+     *
+     * @param bursts Number of bursts to perform
+     * @return Number of bursts that caused an infection
+     */
+    public int burst(int bursts) {
+      byte[] next = this.next;
+      int[] turns = this.turns;
+      int infections = 0;
+
+      for (int i = 0; i < bursts; i ++) {
+        int index = (row + offset) * size + column + offset;
+        byte state = cells[index];
+        byte nextState = next[state];
+
+        direction = (direction + turns[state]) & 3;
+        cells[index] = nextState;
+        if (nextState == INFECTED) {
+          infections ++;
+        }
+
+        row += ROW_STEPS[direction];
+        column += COLUMN_STEPS[direction];
+        if (row + offset < 0 || row + offset >= size || column + offset < 0 || column + offset >= size) {
+          grow();
+        }
+      }
+
+      return infections;
+    }
+
+    /**
+     * Doubles the side of the grid, keeping the origin in the center.
+     */
+    private void grow() {
+      int newSize = size * 2;
+      int newOffset = offset + size / 2;
+      byte[] newCells = new byte[newSize * newSize];
+
+      int shift = newOffset - offset;
+      for (int r = 0; r < size; r ++) {
+        System.arraycopy(cells, r * size, newCells, (r + shift) * newSize + shift, size);
+      }
+
+      this.cells = newCells;
+      this.size = newSize;
+      this.offset = newOffset;
+    }
+
+    private int index(int row, int column) {
+      return (row + offset) * size + column + offset;
+    }
+
+    /**
+     * Returns the state of the given node - one of CLEAN, WEAKENED, INFECTED, or FLAGGED.
+     *
+     * @param node Node to look up
+     * @return State of the node
+     */
+    public byte getState(Node node) {
+      int r = node.row + offset;
+      int c = node.column + offset;
+
+      return r < 0 || r >= size || c < 0 || c >= size ? CLEAN : cells[r * size + c];
+    }
+
+    /**
+     * Returns whether the node under the virus is infected.
+     *
+     * @return Whether the current node is infected
+     */
+    public boolean isInfected() {
+      return cells[index(row, column)] == INFECTED;
+    }
+
+    public Virus getVirus() {
+      return new Virus(new Node(row, column), DIRECTIONS[direction]);
+    }
+
+    /**
+     * Returns a snapshot of the infected nodes.  Walks the whole array, so it's meant for inspection rather than
+     * for every burst.
+     *
+     * @return Grid containing every infected node
+     */
+    public Grid toGrid() {
+      ImmutableSet.Builder<Node> infected = ImmutableSet.builder();
+
+      for (int i = 0; i < cells.length; i ++) {
+        if (cells[i] == INFECTED) {
+          infected.add(new Node(i / size - offset, i % size - offset));
+        }
+      }
+
+      return new Grid(infected.build());
+    }
+
+    /**
+     * Returns a snapshot of the grid and virus as a part 1 State.
+     *
+     * @return State matching this engine
+     */
+    public State toState() {
+      return new State(toGrid(), getVirus());
+    }
   }
 
   public static int countInfections(Grid grid, int bursts) {
+    return DenseEngine.simple(grid).burst(bursts);
+  }
+
+  /**
+   * Counts infections by stepping immutable States.  Rebuilds the infected set on every burst, so it's only
+   * practical for small burst counts - kept as a reference for DenseEngine.
+   */
+  public static int countInfectionsReference(Grid grid, int bursts) {
     State state = new State(grid, Virus.INITIAL);
     int numInfections = 0;
 
@@ -309,6 +507,13 @@ public class Day22 {
   }
 
   public static int countEvolvedInfections(Grid grid, int bursts) {
+    return DenseEngine.evolved(grid).burst(bursts);
+  }
+
+  /**
+   * Counts evolved infections using EvolvedState's node sets.  Kept as a reference for DenseEngine.
+   */
+  public static int countEvolvedInfectionsReference(Grid grid, int bursts) {
     EvolvedState state = EvolvedState.fromGrid(grid);
 
     int numInfections = 0;
@@ -11,6 +11,9 @@ import com.google.common.io.Resources;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.IntStream;
@@ -122,6 +125,39 @@ public class Day23 {
       return number;
     }
 
+    /**
+     * Returns whether this is the given register.
+     */
+    public boolean is(char register) {
+      return isRegister && this.register == register;
+    }
+
+    /**
+     * Returns whether this is the given number.
+     */
+    public boolean is(int number) {
+      return !isRegister && this.number == number;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof RegisterOrNumber)) {
+        return false;
+      }
+      RegisterOrNumber that = (RegisterOrNumber) o;
+      return isRegister == that.isRegister
+          && register == that.register
+          && number == that.number;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(isRegister, register, number);
+    }
+
     @Override
     public String toString() {
       return isRegister ? Character.toString(register) : Integer.toString(number);
@@ -130,6 +166,11 @@ public class Day23 {
 
   public interface Instruction {
     State apply(State state);
+
+    /**
+     * Returns the line of the program this instruction came from.
+     */
+    int getLine();
   }
 
   /**
@@ -153,6 +194,11 @@ public class Day23 {
           .incrementProgramCounter();
     }
 
+    @Override
+    public int getLine() {
+      return line;
+    }
+
     @Override
     public String toString() {
       return String.format("%2d - set %c %s", line, x, y);
@@ -180,6 +226,11 @@ public class Day23 {
           .incrementProgramCounter();
     }
 
+    @Override
+    public int getLine() {
+      return line;
+    }
+
     @Override
     public String toString() {
       return String.format("%2d - sub %c %s", line, x, y);
@@ -207,6 +258,11 @@ public class Day23 {
           .incrementProgramCounter();
     }
 
+    @Override
+    public int getLine() {
+      return line;
+    }
+
     @Override
     public String toString() {
       return String.format("%2d - mul %c %s", line, x, y);
@@ -238,12 +294,630 @@ public class Day23 {
       return state.incrementProgramCounter();
     }
 
+    @Override
+    public int getLine() {
+      return line;
+    }
+
     @Override
     public String toString() {
       return String.format("%2d - jnz %s %s", line, x, y);
     }
   }
 
+  /**
+   * Superinstruction replacing an inner counting loop of the form
+   *
+   * <pre>
+   *   set t x
+   *   mul t y
+   *   sub t z
+   *   jnz t 2
+   *   set f c
+   *   sub y -1
+   *   set t y
+   *   sub t z
+   *   jnz t -8
+   * </pre>
+   *
+   * which sets f to c if x * y == z for any y in [y, z), and leaves y = z and t = 0.  The divisibility check
+   * replaces z - y iterations.  Falls back to the loop's first instruction when the closed form doesn't
+   * apply - y already past z, or values big enough that x * y could overflow.
+   */
+  public static class DivisibilityScanInstruction implements Instruction {
+    /** Number of instructions in the loop this replaces. */
+    static final int LENGTH = 9;
+
+    private final int line;
+    private final RegisterOrNumber x;
+    private final char y;
+    private final RegisterOrNumber z;
+    private final char t;
+    private final char f;
+    private final RegisterOrNumber c;
+    private final Instruction fallback;
+
+    public DivisibilityScanInstruction(
+        int line,
+        RegisterOrNumber x,
+        char y,
+        RegisterOrNumber z,
+        char t,
+        char f,
+        RegisterOrNumber c,
+        Instruction fallback
+    ) {
+      this.line = line;
+      this.x = x;
+      this.y = y;
+      this.z = z;
+      this.t = t;
+      this.f = f;
+      this.c = c;
+      this.fallback = fallback;
+    }
+
+    @Override
+    public State apply(State state) {
+      long xValue = x.get(state);
+      long yValue = state.getRegister(y);
+      long zValue = z.get(state);
+
+      if (yValue >= zValue || !fitsInInt(xValue, yValue, zValue)) {
+        return fallback.apply(state);
+      }
+
+      boolean found = xValue == 0
+          ? zValue == 0
+          : zValue % xValue == 0 && zValue / xValue >= yValue && zValue / xValue < zValue;
+
+      if (found) {
+        state = state.setRegister(f, c.get(state));
+      }
+
+      return state
+          .setRegister(y, zValue)
+          .setRegister(t, 0)
+          .setProgramCounter(state.programCounter + LENGTH);
+    }
+
+    @Override
+    public int getLine() {
+      return line;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%2d - scan %c: %s * %c == %s in [%c, %s) => set %c %s", line, y, x, y, z, y, z, f, c);
+    }
+  }
+
+  /**
+   * Superinstruction replacing an outer counting loop around a DivisibilityScanInstruction:
+   *
+   * <pre>
+   *   set y k
+   *   (divisibility scan of x * y == z, 9 lines)
+   *   sub x -1
+   *   set t x
+   *   sub t z
+   *   jnz t -13
+   * </pre>
+   *
+   * which sets f to c if x * y == z for any x in [x, z) and y in [k, z), and leaves x = z, y = z and t = 0.
+   * Checking the divisors of z replaces the (z - x) * (z - k) iterations of the nested loops.  Falls back to
+   * the loop's first instruction unless x, k and z are positive and fit in an int.
+   */
+  public static class NestedDivisibilityScanInstruction implements Instruction {
+    /** Number of instructions in the loop this replaces. */
+    static final int LENGTH = DivisibilityScanInstruction.LENGTH + 5;
+
+    private final int line;
+    private final char x;
+    private final char y;
+    private final RegisterOrNumber k;
+    private final RegisterOrNumber z;
+    private final char t;
+    private final char f;
+    private final RegisterOrNumber c;
+    private final Instruction fallback;
+
+    public NestedDivisibilityScanInstruction(
+        int line,
+        char x,
+        char y,
+        RegisterOrNumber k,
+        RegisterOrNumber z,
+        char t,
+        char f,
+        RegisterOrNumber c,
+        Instruction fallback
+    ) {
+      this.line = line;
+      this.x = x;
+      this.y = y;
+      this.k = k;
+      this.z = z;
+      this.t = t;
+      this.f = f;
+      this.c = c;
+      this.fallback = fallback;
+    }
+
+    @Override
+    public State apply(State state) {
+      long xValue = state.getRegister(x);
+      long kValue = k.get(state);
+      long zValue = z.get(state);
+
+      if (xValue < 1 || kValue < 1 || xValue >= zValue || kValue >= zValue || !fitsInInt(xValue, kValue, zValue)) {
+        return fallback.apply(state);
+      }
+
+      boolean found = false;
+      for (long divisor = 1; divisor * divisor <= zValue && !found; divisor ++) {
+        if (zValue % divisor == 0) {
+          long quotient = zValue / divisor;
+          found = inRange(divisor, xValue, zValue) && inRange(quotient, kValue, zValue)
+              || inRange(quotient, xValue, zValue) && inRange(divisor, kValue, zValue);
+        }
+      }
+
+      if (found) {
+        state = state.setRegister(f, c.get(state));
+      }
+
+      return state
+          .setRegister(x, zValue)
+          .setRegister(y, zValue)
+          .setRegister(t, 0)
+          .setProgramCounter(state.programCounter + LENGTH);
+    }
+
+    private static boolean inRange(long value, long from, long to) {
+      return value >= from && value < to;
+    }
+
+    @Override
+    public int getLine() {
+      return line;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%2d - scan %c, %c: %c * %c == %s in [%c, %s) x [%s, %s) => set %c %s",
+          line, x, y, x, y, z, x, z, k, z, f, c);
+    }
+  }
+
+  private static boolean fitsInInt(long... values) {
+    for (long value : values) {
+      if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns a copy of the given program with counting loops replaced by superinstructions.  Each
+   * superinstruction takes the place of its loop's first line and jumps past the loop, so the rest of the
+   * loop's lines stay where they are and every other jump offset is unchanged.  Loops are only replaced
+   * when no jump lands inside them, and nothing is replaced if any jump has a register offset.
+   *
+   * @param program Program to optimize
+   * @return Program that leaves the registers in the same state
+   */
+  public static ImmutableList<Instruction> optimize(ImmutableList<Instruction> program) {
+    for (Instruction instruction : program) {
+      if (instruction instanceof JnzInstruction && ((JnzInstruction) instruction).y.isRegister) {
+        return program;
+      }
+    }
+
+    Instruction[] optimized = program.toArray(new Instruction[0]);
+
+    for (int line = 0; line + DivisibilityScanInstruction.LENGTH <= optimized.length; line ++) {
+      if (!jumpsInto(program, line, DivisibilityScanInstruction.LENGTH)) {
+        Instruction scan = matchDivisibilityScan(optimized, line);
+        if (scan != null) {
+          optimized[line] = scan;
+        }
+      }
+    }
+
+    for (int line = 0; line + NestedDivisibilityScanInstruction.LENGTH <= optimized.length; line ++) {
+      if (!jumpsInto(program, line, NestedDivisibilityScanInstruction.LENGTH)) {
+        Instruction scan = matchNestedDivisibilityScan(optimized, line);
+        if (scan != null) {
+          optimized[line] = scan;
+        }
+      }
+    }
+
+    return ImmutableList.copyOf(optimized);
+  }
+
+  /**
+   * Returns whether a jump from outside the given lines lands on one of them, other than the first.
+   */
+  private static boolean jumpsInto(ImmutableList<Instruction> program, int start, int length) {
+    for (int line = 0; line < program.size(); line ++) {
+      Instruction instruction = program.get(line);
+      if (instruction instanceof JnzInstruction && (line < start || line >= start + length)) {
+        long target = line + ((JnzInstruction) instruction).y.number;
+        if (target > start && target < start + length) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  private static Instruction matchDivisibilityScan(Instruction[] program, int line) {
+    if (!(program[line] instanceof SetInstruction)
+        || !(program[line + 1] instanceof MulInstruction)
+        || !(program[line + 2] instanceof SubInstruction)
+        || !(program[line + 3] instanceof JnzInstruction)
+        || !(program[line + 4] instanceof SetInstruction)
+        || !(program[line + 5] instanceof SubInstruction)
+        || !(program[line + 6] instanceof SetInstruction)
+        || !(program[line + 7] instanceof SubInstruction)
+        || !(program[line + 8] instanceof JnzInstruction)) {
+      return null;
+    }
+
+    SetInstruction setT = (SetInstruction) program[line];
+    MulInstruction mulTY = (MulInstruction) program[line + 1];
+    SubInstruction subTZ = (SubInstruction) program[line + 2];
+    JnzInstruction skipSetF = (JnzInstruction) program[line + 3];
+    SetInstruction setF = (SetInstruction) program[line + 4];
+    SubInstruction incrementY = (SubInstruction) program[line + 5];
+    SetInstruction setTY = (SetInstruction) program[line + 6];
+    SubInstruction subTZAgain = (SubInstruction) program[line + 7];
+    JnzInstruction loop = (JnzInstruction) program[line + 8];
+
+    char t = setT.x;
+    if (!mulTY.y.isRegister) {
+      return null;
+    }
+    char y = mulTY.y.register;
+    char f = setF.x;
+    RegisterOrNumber x = setT.y;
+    RegisterOrNumber z = subTZ.y;
+
+    boolean shapeMatches = mulTY.x == t
+        && subTZ.x == t
+        && skipSetF.x.is(t) && skipSetF.y.is(2)
+        && incrementY.x == y && incrementY.y.is(-1)
+        && setTY.x == t && setTY.y.is(y)
+        && subTZAgain.x == t && subTZAgain.y.equals(z)
+        && loop.x.is(t) && loop.y.is(-8);
+
+    // The flag's value must not change inside the loop, and the loop registers must be distinct.
+    boolean registersDistinct = distinct(t, y, f)
+        && !x.is(t) && !x.is(y) && !x.is(f)
+        && !z.is(t) && !z.is(y) && !z.is(f)
+        && !setF.y.is(t) && !setF.y.is(y);
+
+    if (!shapeMatches || !registersDistinct) {
+      return null;
+    }
+
+    return new DivisibilityScanInstruction(line, x, y, z, t, f, setF.y, program[line]);
+  }
+
+  private static Instruction matchNestedDivisibilityScan(Instruction[] program, int line) {
+    int end = line + 1 + DivisibilityScanInstruction.LENGTH;
+    if (!(program[line] instanceof SetInstruction)
+        || !(program[line + 1] instanceof DivisibilityScanInstruction)
+        || !(program[end] instanceof SubInstruction)
+        || !(program[end + 1] instanceof SetInstruction)
+        || !(program[end + 2] instanceof SubInstruction)
+        || !(program[end + 3] instanceof JnzInstruction)) {
+      return null;
+    }
+
+    SetInstruction setY = (SetInstruction) program[line];
+    DivisibilityScanInstruction scan = (DivisibilityScanInstruction) program[line + 1];
+    SubInstruction incrementX = (SubInstruction) program[end];
+    SetInstruction setTX = (SetInstruction) program[end + 1];
+    SubInstruction subTZ = (SubInstruction) program[end + 2];
+    JnzInstruction loop = (JnzInstruction) program[end + 3];
+
+    if (!scan.x.isRegister) {
+      return null;
+    }
+    char x = scan.x.register;
+    RegisterOrNumber k = setY.y;
+
+    boolean shapeMatches = setY.x == scan.y
+        && incrementX.x == x && incrementX.y.is(-1)
+        && setTX.x == scan.t && setTX.y.is(x)
+        && subTZ.x == scan.t && subTZ.y.equals(scan.z)
+        && loop.x.is(scan.t) && loop.y.is(-(NestedDivisibilityScanInstruction.LENGTH - 1));
+
+    boolean registersDistinct = !k.is(x) && !k.is(scan.y) && !k.is(scan.t) && !k.is(scan.f)
+        && !scan.c.is(x);
+
+    if (!shapeMatches || !registersDistinct) {
+      return null;
+    }
+
+    return new NestedDivisibilityScanInstruction(
+        line, x, scan.y, k, scan.z, scan.t, scan.f, scan.c, program[line]);
+  }
+
+  private static boolean distinct(char... registers) {
+    for (int i = 0; i < registers.length; i ++) {
+      for (int j = i + 1; j < registers.length; j ++) {
+        if (registers[i] == registers[j]) {
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Runs the given program from the given state until it terminates.
+   *
+   * @param program Program to run
+   * @param state Initial state
+   * @return State after the program terminates
+   */
+  public static State run(ImmutableList<Instruction> program, State state) {
+    while (state.isRunning(program)) {
+      state = program.get(state.programCounter).apply(state);
+    }
+
+    return state;
+  }
+
+  /**
+   * Runs the given program as JVM bytecode compiled by AssemblyCompiler, falling back to the interpreter if
+   * the program uses anything the compiler doesn't support.
+   *
+   * @param lines Program to run
+   * @param state Initial state
+   * @return State after the program terminates
+   */
+  public static State runCompiled(ImmutableList<String> lines, State state) {
+    Optional<AssemblyCompiler.Program> compiled = AssemblyCompiler.compile(lines);
+    if (!compiled.isPresent()) {
+      return run(parseProgram(lines), state);
+    }
+
+    long[] registers = new long[AssemblyCompiler.NUM_SLOTS];
+    for (char register = 'a'; register <= 'z'; register ++) {
+      registers[register - 'a'] = state.getRegister(register);
+    }
+
+    int programCounter = compiled.get().run(registers);
+
+    for (char register = 'a'; register <= 'z'; register ++) {
+      if (registers[register - 'a'] != state.getRegister(register)) {
+        state = state.setRegister(register, registers[register - 'a']);
+      }
+    }
+
+    return state.setProgramCounter(programCounter);
+  }
+
+  /**
+   * Execution profile of a program run: how many times each line ran, how often each jnz jumped, and the
+   * loops formed by backward jumps.  Only collected by profile(), so running without profiling costs
+   * nothing extra.
+   */
+  public static class Profile {
+    private final ImmutableList<Instruction> program;
+    /** Times each line executed, by index in the program. */
+    private final long[] executions;
+    /** Times each jnz jumped, by index in the program. */
+    private final long[] taken;
+    /** Times each jnz didn't jump, by index in the program. */
+    private final long[] notTaken;
+    /** Target of each backward jump, or -1 if the line never jumped backwards. */
+    private final int[] backEdgeTargets;
+    /** Times each backward jump was taken, by index in the program. */
+    private final long[] backEdgeTaken;
+    private State finalState;
+
+    private Profile(ImmutableList<Instruction> program) {
+      this.program = program;
+      this.executions = new long[program.size()];
+      this.taken = new long[program.size()];
+      this.notTaken = new long[program.size()];
+      this.backEdgeTargets = new int[program.size()];
+      this.backEdgeTaken = new long[program.size()];
+      Arrays.fill(backEdgeTargets, -1);
+    }
+
+    private void record(int programCounter, boolean jumped, int nextProgramCounter) {
+      executions[programCounter]++;
+
+      if (program.get(programCounter) instanceof JnzInstruction) {
+        if (jumped) {
+          taken[programCounter]++;
+        } else {
+          notTaken[programCounter]++;
+        }
+      }
+
+      if (jumped && nextProgramCounter <= programCounter && nextProgramCounter >= 0) {
+        backEdgeTargets[programCounter] = nextProgramCounter;
+        backEdgeTaken[programCounter]++;
+      }
+    }
+
+    public long getExecutions(int index) {
+      return executions[index];
+    }
+
+    public long getTaken(int index) {
+      return taken[index];
+    }
+
+    public long getNotTaken(int index) {
+      return notTaken[index];
+    }
+
+    /**
+     * Returns the number of times instructions of the given type executed.
+     *
+     * @param type Type of instruction to count, like MulInstruction
+     * @return Total executions of instructions of that type
+     */
+    public long count(Class<? extends Instruction> type) {
+      long count = 0;
+      for (int i = 0; i < program.size(); i ++) {
+        if (type.isInstance(program.get(i))) {
+          count += executions[i];
+        }
+      }
+
+      return count;
+    }
+
+    /**
+     * Returns the state the program was in when profiling stopped.
+     */
+    public State getFinalState() {
+      return finalState;
+    }
+
+    /**
+     * Returns the number of times the loop closed by the backward jump on the given line was entered from
+     * outside, rather than by the jump itself.
+     */
+    private long loopEntries(int index) {
+      int target = backEdgeTargets[index];
+      long backArrivals = 0;
+      for (int i = 0; i < program.size(); i ++) {
+        if (backEdgeTargets[i] == target) {
+          backArrivals += backEdgeTaken[i];
+        }
+      }
+
+      return executions[target] - backArrivals;
+    }
+
+    /**
+     * Returns a text report with a section each for lines, branches and loops.  Columns are fixed width,
+     * and every row is keyed by the instruction's line.
+     *
+     * @return Text report
+     */
+    public String toText() {
+      StringBuilder bldr = new StringBuilder();
+
+      bldr.append(String.format("%4s %15s  %s%n", "line", "count", "instruction"));
+      for (int i = 0; i < program.size(); i ++) {
+        bldr.append(String.format("%4d %15d  %s%n", program.get(i).getLine(), executions[i], source(i)));
+      }
+
+      bldr.append(String.format("%n%4s %15s %15s%n", "jnz", "taken", "not taken"));
+      for (int i = 0; i < program.size(); i ++) {
+        if (program.get(i) instanceof JnzInstruction) {
+          bldr.append(String.format("%4d %15d %15d%n", program.get(i).getLine(), taken[i], notTaken[i]));
+        }
+      }
+
+      bldr.append(String.format("%n%4s %4s %15s %15s %15s%n", "from", "to", "entries", "iterations", "trips/entry"));
+      for (int i = 0; i < program.size(); i ++) {
+        if (backEdgeTargets[i] != -1) {
+          long entries = loopEntries(i);
+          long iterations = entries + backEdgeTaken[i];
+          bldr.append(String.format(Locale.ROOT, "%4d %4d %15d %15d %15.1f%n",
+              program.get(i).getLine(),
+              program.get(backEdgeTargets[i]).getLine(),
+              entries,
+              iterations,
+              entries == 0 ? 0.0 : (double) iterations / entries));
+        }
+      }
+
+      return bldr.toString();
+    }
+
+    /**
+     * Returns the report as JSON, with "lines", "branches" and "loops" arrays in line order.
+     *
+     * @return JSON report
+     */
+    public String toJson() {
+      StringBuilder bldr = new StringBuilder("{\"lines\":[");
+      for (int i = 0; i < program.size(); i ++) {
+        bldr.append(i == 0 ? "" : ",")
+            .append("{\"line\":").append(program.get(i).getLine())
+            .append(",\"count\":").append(executions[i])
+            .append(",\"instruction\":\"").append(source(i)).append("\"}");
+      }
+
+      bldr.append("],\"branches\":[");
+      String separator = "";
+      for (int i = 0; i < program.size(); i ++) {
+        if (program.get(i) instanceof JnzInstruction) {
+          bldr.append(separator)
+              .append("{\"line\":").append(program.get(i).getLine())
+              .append(",\"taken\":").append(taken[i])
+              .append(",\"notTaken\":").append(notTaken[i]).append('}');
+          separator = ",";
+        }
+      }
+
+      bldr.append("],\"loops\":[");
+      separator = "";
+      for (int i = 0; i < program.size(); i ++) {
+        if (backEdgeTargets[i] != -1) {
+          long entries = loopEntries(i);
+          bldr.append(separator)
+              .append("{\"from\":").append(program.get(i).getLine())
+              .append(",\"to\":").append(program.get(backEdgeTargets[i]).getLine())
+              .append(",\"entries\":").append(entries)
+              .append(",\"iterations\":").append(entries + backEdgeTaken[i]).append('}');
+          separator = ",";
+        }
+      }
+
+      return bldr.append("]}").toString();
+    }
+
+    /**
+     * Returns the instruction at the given index without its line number prefix.
+     */
+    private String source(int index) {
+      return program.get(index).toString().replaceFirst("^\\s*\\d+ - ", "");
+    }
+  }
+
+  /**
+   * Runs the given program while recording a profile of every instruction executed.
+   *
+   * @param program Program to run
+   * @param state Initial state
+   * @param maxSteps Number of instructions to execute before stopping, if the program hasn't terminated
+   * @return Profile of the run
+   */
+  public static Profile profile(ImmutableList<Instruction> program, State state, long maxSteps) {
+    Profile profile = new Profile(program);
+
+    for (long step = 0; step < maxSteps && state.isRunning(program); step ++) {
+      int programCounter = state.programCounter;
+      Instruction instruction = program.get(programCounter);
+      boolean jumped = instruction instanceof JnzInstruction && ((JnzInstruction) instruction).x.get(state) != 0;
+
+      state = instruction.apply(state);
+      profile.record(programCounter, jumped || state.programCounter != programCounter + 1, state.programCounter);
+    }
+
+    profile.finalState = state;
+    return profile;
+  }
+
   public static int runCountMul(ImmutableList<Instruction> program) {
     State state = new State();
 
@@ -319,8 +993,10 @@ public class Day23 {
 
   private static ImmutableList<Instruction> loadProgram(String name) throws IOException {
     File file = new File(Resources.getResource(name).getFile());
-    ImmutableList<String> lines = ImmutableList.copyOf(Files.readLines(file, Charsets.UTF_8));
+    return parseProgram(ImmutableList.copyOf(Files.readLines(file, Charsets.UTF_8)));
+  }
 
+  public static ImmutableList<Instruction> parseProgram(ImmutableList<String> lines) {
     ImmutableList.Builder<Instruction> instructions = ImmutableList.builder();
     for (int i = 0; i < lines.size(); i ++) {
       instructions.add(parseInstruction(i, lines.get(i)));
@@ -329,7 +1005,15 @@ public class Day23 {
   }
 
   public static void main(String[] args) throws IOException {
+    if (args.length > 0 && args[0].equals("--profile")) {
+      // Profile the first million steps of part 2 to find the hot loops.
+      Profile profile = profile(loadProgram("day23.txt"), new State().setRegister('a', 1), 1_000_000);
+      System.out.println(args.length > 1 && args[1].equals("json") ? profile.toJson() : profile.toText());
+      return;
+    }
+
     System.out.println("Part 1: " + runCountMul(loadProgram("day23.txt")));
-    System.out.println("Part 2: " + runOptimized());
+    System.out.println("Part 2: " + run(optimize(loadProgram("day23.txt")), new State().setRegister('a', 1))
+        .getRegister('h'));
   }
 }
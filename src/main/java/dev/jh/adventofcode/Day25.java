@@ -1,11 +1,19 @@
 package dev.jh.adventofcode;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
 
-import java.util.HashSet;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class Day25 {
 
@@ -21,25 +29,59 @@ public class Day25 {
     }
   }
 
+  /**
+   * Infinite tape of bits, stored as a two-sided bitset.  words[offset] holds cells 0 through 63, and the array
+   * doubles in size whenever a 1 is written outside of it.
+   */
   public static class Tape {
-    private final Set<Integer> on = new HashSet<>();
+    private long[] words = new long[2];
+    private int offset = 1;
 
     public boolean get(int cursor) {
-      return on.contains(cursor);
+      int word = offset + (cursor >> 6);
+      return word >= 0 && word < words.length && (words[word] & (1L << cursor)) != 0;
     }
 
     public Tape write(int cursor, boolean value) {
       if (value) {
-        on.add(cursor);
+        int word = ensureCapacity(cursor);
+        words[word] |= 1L << cursor;
       } else {
-        on.remove(cursor);
+        int word = offset + (cursor >> 6);
+        if (word >= 0 && word < words.length) {
+          words[word] &= ~(1L << cursor);
+        }
       }
 
       return this;
     }
 
+    /**
+     * Grows the tape until it includes the given cursor, returning the index of the cursor's word.
+     */
+    private int ensureCapacity(int cursor) {
+      int word = offset + (cursor >> 6);
+
+      while (word < 0 || word >= words.length) {
+        long[] newWords = new long[words.length * 2];
+        int shift = words.length / 2;
+
+        System.arraycopy(words, 0, newWords, shift, words.length);
+        words = newWords;
+        offset += shift;
+        word += shift;
+      }
+
+      return word;
+    }
+
     public int checksum() {
-      return on.size();
+      int checksum = 0;
+      for (long word : words) {
+        checksum += Long.bitCount(word);
+      }
+
+      return checksum;
     }
 
     @Override
@@ -47,12 +89,87 @@ public class Day25 {
       if (this == o) return true;
       if (o == null || getClass() != o.getClass()) return false;
       Tape tape = (Tape) o;
-      return Objects.equals(on, tape.on);
+
+      // Tapes can have different capacities, so compare words by their position relative to cell 0.
+      int from = Math.min(-offset, -tape.offset);
+      int to = Math.max(words.length - offset, tape.words.length - tape.offset);
+      for (int i = from; i < to; i ++) {
+        if (word(i) != tape.word(i)) {
+          return false;
+        }
+      }
+
+      return true;
     }
 
     @Override
     public int hashCode() {
-      return Objects.hash(on);
+      int result = 0;
+      for (int i = 0; i < words.length; i ++) {
+        if (words[i] != 0) {
+          result += 31 * (i - offset) + Long.hashCode(words[i]);
+        }
+      }
+
+      return result;
+    }
+
+    /**
+     * Returns a copy of this tape that can be modified independently.
+     */
+    private Tape copy() {
+      Tape copy = new Tape();
+      copy.words = words.clone();
+      copy.offset = offset;
+      return copy;
+    }
+
+    /**
+     * Returns the lowest cell holding a 1, or Integer.MAX_VALUE if the tape is blank.
+     */
+    private int lowestOne() {
+      for (int i = 0; i < words.length; i ++) {
+        if (words[i] != 0) {
+          return (i - offset) * 64 + Long.numberOfTrailingZeros(words[i]);
+        }
+      }
+
+      return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the highest cell holding a 1, or Integer.MIN_VALUE if the tape is blank.
+     */
+    private int highestOne() {
+      for (int i = words.length - 1; i >= 0; i --) {
+        if (words[i] != 0) {
+          return (i - offset) * 64 + 63 - Long.numberOfLeadingZeros(words[i]);
+        }
+      }
+
+      return Integer.MIN_VALUE;
+    }
+
+    /**
+     * Returns the number of 1s in cells from through to, inclusive.
+     */
+    private int count(int from, int to) {
+      int count = 0;
+      for (int cell = from; cell <= to; cell ++) {
+        if (get(cell)) {
+          count ++;
+        }
+      }
+
+      return count;
+    }
+
+    /**
+     * Returns the word holding cells 64 * index through 64 * index + 63.
+     */
+    private long word(int index) {
+      int word = offset + index;
+      return word >= 0 && word < words.length ? words[word] : 0;
     }
   }
 
@@ -95,73 +212,580 @@ public class Day25 {
     return machine;
   }
 
-  public static void main(String[] args) {
-    Machine initial = new Machine(new Tape(), 0, 'a');
-
-    ImmutableMap<StateValue, Function<Machine, Machine>> instructions =
-        ImmutableMap.<StateValue, Function<Machine, Machine>>builder()
-            .put(new StateValue('a', false), machine -> new Machine(
-                machine.tape.write(machine.cursor, true),
-                machine.cursor + 1,
-                'b'
-            ))
-            .put(new StateValue('a', true), machine -> new Machine(
-                machine.tape.write(machine.cursor, false),
-                machine.cursor + 1,
-                'f'
-            ))
-            .put(new StateValue('b', false), machine -> new Machine(
-                machine.tape.write(machine.cursor, false),
-                machine.cursor - 1,
-                'b'
-            ))
-            .put(new StateValue('b', true), machine -> new Machine(
-                machine.tape.write(machine.cursor, true),
-                machine.cursor - 1,
-                'c'
-            ))
-            .put(new StateValue('c', false), machine -> new Machine(
-                machine.tape.write(machine.cursor, true),
-                machine.cursor - 1,
-                'd'
-            ))
-            .put(new StateValue('c', true), machine -> new Machine(
-                machine.tape.write(machine.cursor, false),
-                machine.cursor + 1,
-                'c'
-            ))
-            .put(new StateValue('d', false), machine -> new Machine(
-                machine.tape.write(machine.cursor, true),
-                machine.cursor - 1,
-                'e'
-            ))
-            .put(new StateValue('d', true), machine -> new Machine(
-                machine.tape.write(machine.cursor, true),
-                machine.cursor + 1,
-                'a'
-            ))
-            .put(new StateValue('e', false), machine -> new Machine(
-                machine.tape.write(machine.cursor, true),
-                machine.cursor - 1,
-                'f'
-            ))
-            .put(new StateValue('e', true), machine -> new Machine(
-                machine.tape.write(machine.cursor, false),
-                machine.cursor - 1,
-                'd'
-            ))
-            .put(new StateValue('f', false), machine -> new Machine(
-                machine.tape.write(machine.cursor, true),
-                machine.cursor + 1,
-                'a'
-            ))
-            .put(new StateValue('f', true), machine -> new Machine(
-                machine.tape.write(machine.cursor, false),
-                machine.cursor - 1,
-                'e'
-            ))
-            .build();
-
-    System.out.println("Part 1: " + runSteps(12425180, initial, instructions).tape.checksum());
+  /**
+   * Result of running a machine with cycle detection.  The tape isn't kept, since fast-forwarding a translated
+   * cycle would need to write out every repetition.
+   */
+  public static class CycleRun {
+    public final char state;
+    public final long cursor;
+    public final long checksum;
+    /** Step the repeating segment was first seen at, or -1 if no cycle was found. */
+    public final long cycleStart;
+    /** Number of steps in the repeating segment, 0 if no cycle was found. */
+    public final long period;
+    /** Distance the segment moves the machine each time it repeats, 0 for pure cycles. */
+    public final long shift;
+
+    public CycleRun(char state, long cursor, long checksum, long cycleStart, long period, long shift) {
+      this.state = state;
+      this.cursor = cursor;
+      this.checksum = checksum;
+      this.cycleStart = cycleStart;
+      this.period = period;
+      this.shift = shift;
+    }
+
+    public boolean foundCycle() {
+      return cycleStart >= 0;
+    }
+  }
+
+  /**
+   * Turing machine compiled into flat arrays indexed by state * 2 + current value, so each step is a few array
+   * loads and a bit operation.  States are numbered in the order they're added.
+   */
+  public static class TransitionTable {
+    private final char[] names;
+    private final int[] writes;
+    private final int[] moves;
+    private final int[] nextStates;
+
+    private TransitionTable(char[] names, int[] writes, int[] moves, int[] nextStates) {
+      this.names = names;
+      this.writes = writes;
+      this.moves = moves;
+      this.nextStates = nextStates;
+    }
+
+    /**
+     * Runs the machine for the given number of steps, modifying the initial machine's tape.
+     *
+     * @param steps Number of steps to run
+     * @param initial Machine to start from
+     * @return Machine after the steps
+     */
+    public Machine run(long steps, Machine initial) {
+      Tape tape = initial.tape;
+      int cursor = initial.cursor;
+      int state = stateIndex(initial.state);
+
+      long[] words = tape.words;
+      for (long i = 0; i < steps; i ++) {
+        int word = tape.offset + (cursor >> 6);
+        if (word < 0 || word >= words.length) {
+          word = tape.ensureCapacity(cursor);
+          words = tape.words;
+        }
+
+        int transition = state * 2 + (int) (words[word] >>> cursor & 1);
+        words[word] = words[word] & ~(1L << cursor) | (long) writes[transition] << cursor;
+        cursor += moves[transition];
+        state = nextStates[transition];
+      }
+
+      return new Machine(tape, cursor, names[state]);
+    }
+
+    /**
+     * Runs the machine for the given number of steps like run, but a block of BLOCK_BITS cells at a time.  The
+     * result of entering a block from either side in each state is computed once and cached - the new block, the
+     * state the machine leaves in, which side it leaves from, and how many steps it took.  When the machine sweeps
+     * through a block and keeps going in the same state, following identical blocks are handled in bulk, a whole
+     * word at a time where possible.  The final partial block and blocks the machine never leaves are stepped
+     * normally, so the result is exactly the same as run.
+     *
+     * @param steps Number of steps to run
+     * @param initial Machine to start from
+     * @return Machine after the steps
+     */
+    public Machine runMacro(long steps, Machine initial) {
+      for (int move : moves) {
+        if (move != 1 && move != -1) {
+          return run(steps, initial);
+        }
+      }
+
+      MacroRun macro = new MacroRun(initial.tape, initial.cursor, stateIndex(initial.state), steps);
+      macro.run();
+
+      return new Machine(macro.tape, macro.cursor, names[macro.state]);
+    }
+
+    private static final int BLOCK_SHIFT = 3;
+    private static final int BLOCK_BITS = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_OFFSET = BLOCK_BITS - 1;
+    private static final int BLOCK_MASK = (1 << BLOCK_BITS) - 1;
+    private static final long REPEAT_BLOCK = 0x0101010101010101L;
+
+    /** Cached block transitions indexed by (state * 2^BLOCK_BITS + block) * 2 + entry side.  0 if not computed. */
+    private long[] blockTransitions;
+
+    /**
+     * Returns the packed result of entering the block in the given state - the number of steps in the high 32 bits
+     * (-1 if the machine never leaves the block), then the exit state, new block, and a 1 in the low bit if the
+     * machine leaves to the right.  Bit 1 is always set so computed transitions are never 0.
+     */
+    private long blockTransition(int state, int block, int fromRight) {
+      if (blockTransitions == null) {
+        blockTransitions = new long[names.length << (BLOCK_BITS + 1)];
+      }
+
+      int key = ((state << BLOCK_BITS) + block) * 2 + fromRight;
+      long transition = blockTransitions[key];
+      if (transition == 0) {
+        transition = computeBlockTransition(state, block, fromRight);
+        blockTransitions[key] = transition;
+      }
+
+      return transition;
+    }
+
+    private long computeBlockTransition(int state, int block, int fromRight) {
+      // There are only so many (state, position, block) configurations - more steps than that means a loop.
+      long limit = (long) names.length * BLOCK_BITS << BLOCK_BITS;
+      int position = fromRight == 1 ? BLOCK_BITS - 1 : 0;
+
+      for (long count = 1; count <= limit; count ++) {
+        int transition = state * 2 + (block >>> position & 1);
+        block = block & ~(1 << position) | writes[transition] << position;
+        position += moves[transition];
+        state = nextStates[transition];
+
+        if (position < 0 || position >= BLOCK_BITS) {
+          return count << 32 | (long) state << 16 | (long) block << 8 | 2 | (position < 0 ? 0 : 1);
+        }
+      }
+
+      return -1L << 32 | 2;
+    }
+
+    /**
+     * Mutable cursor, state and step count for a single runMacro call.
+     */
+    private class MacroRun {
+      final Tape tape;
+      int cursor;
+      int state;
+      long remaining;
+
+      MacroRun(Tape tape, int cursor, int state, long remaining) {
+        this.tape = tape;
+        this.cursor = cursor;
+        this.state = state;
+        this.remaining = remaining;
+      }
+
+      void run() {
+        // Step into a block boundary, so every block after this one is entered from one of its edges.
+        int startBlock = cursor >> BLOCK_SHIFT;
+        while (remaining > 0 && cursor >> BLOCK_SHIFT == startBlock) {
+          step();
+        }
+
+        while (remaining > 0) {
+          int fromRight = (cursor & BLOCK_OFFSET) == BLOCK_OFFSET ? 1 : 0;
+          int word = tape.ensureCapacity(cursor);
+          int shift = cursor & 63 & ~BLOCK_OFFSET;
+          int block = (int) (tape.words[word] >>> shift) & BLOCK_MASK;
+
+          long transition = blockTransition(state, block, fromRight);
+          long count = transition >> 32;
+          if (count < 0 || count > remaining) {
+            // Either the machine stays in this block forever, or the steps run out inside it.
+            while (remaining > 0) {
+              step();
+            }
+            return;
+          }
+
+          int exitState = (int) (transition >>> 16 & 0xFFFF);
+          int newBlock = (int) (transition >>> 8 & BLOCK_MASK);
+          int toRight = (int) (transition & 1);
+
+          setBlock(word, shift, newBlock);
+          remaining -= count;
+          cursor = toRight == 1 ? (cursor | BLOCK_OFFSET) + 1 : (cursor & ~BLOCK_OFFSET) - 1;
+
+          if (exitState == state && toRight != fromRight) {
+            sweep(block, newBlock, count, toRight == 1 ? 1 : -1);
+          }
+          state = exitState;
+        }
+      }
+
+      /**
+       * The machine passed through a block in its entry state, so it passes through every following block with
+       * the same contents in the same way.  Rewrites those blocks without stepping through them.
+       */
+      private void sweep(int block, int newBlock, long count, int direction) {
+        long words = REPEAT_BLOCK * block;
+        long newWords = REPEAT_BLOCK * newBlock;
+        long wordCount = count * (64 / BLOCK_BITS);
+
+        while (remaining >= count) {
+          int word = tape.offset + (cursor >> 6);
+          if (word < 0 || word >= tape.words.length) {
+            return;
+          }
+
+          boolean atWordEdge = direction == 1 ? (cursor & 63) == 0 : (cursor & 63) == 63;
+          if (atWordEdge && tape.words[word] == words && remaining >= wordCount) {
+            tape.words[word] = newWords;
+            remaining -= wordCount;
+            cursor += 64 * direction;
+            continue;
+          }
+
+          int shift = cursor & 63 & ~BLOCK_OFFSET;
+          if ((int) (tape.words[word] >>> shift & BLOCK_MASK) != block) {
+            return;
+          }
+
+          setBlock(word, shift, newBlock);
+          remaining -= count;
+          cursor += BLOCK_BITS * direction;
+        }
+      }
+
+      private void setBlock(int word, int shift, int block) {
+        tape.words[word] = tape.words[word] & ~((long) BLOCK_MASK << shift) | (long) block << shift;
+      }
+
+      void step() {
+        int word = tape.ensureCapacity(cursor);
+        int transition = state * 2 + (int) (tape.words[word] >>> cursor & 1);
+
+        tape.words[word] = tape.words[word] & ~(1L << cursor) | (long) writes[transition] << cursor;
+        cursor += moves[transition];
+        state = nextStates[transition];
+        remaining --;
+      }
+    }
+
+    /**
+     * Runs the machine for the given number of steps, watching the first detectionSteps of them for a cycle.
+     * <ul>
+     *   <li>Pure cycles - the state, cursor, and tape all repeat - are found by comparing against snapshots taken
+     *   at power-of-two steps, and the remaining steps are reduced modulo the period.</li>
+     *   <li>Translated cycles are found at record-breaking steps, where the cursor is further out than any 1 on the
+     *   tape.  If the cursor breaks a record in the same direction and state later, and the tape between the
+     *   furthest the machine backed up in between and the record matches the earlier tape shifted by the distance
+     *   between the records, the machine will repeat that segment shifted by the same distance forever.  Every
+     *   repetition leaves behind a copy of the band the machine backed up over, so the remaining full periods
+     *   are added to the cursor and checksum arithmetically.</li>
+     * </ul>
+     * If no cycle is found, the remaining steps are run normally.
+     *
+     * @param steps Number of steps to run
+     * @param initial Machine to start from.  Its tape is modified.
+     * @param detectionSteps Number of steps to look for a cycle before giving up
+     * @return Final state, cursor, and checksum, along with the cycle that was found
+     */
+    public CycleRun runDetectingCycles(long steps, Machine initial, long detectionSteps) {
+      for (int move : moves) {
+        if (move != 1 && move != -1) {
+          throw new IllegalStateException("Cycle detection needs every move to be one cell");
+        }
+      }
+
+      CycleSearch search = new CycleSearch(initial.tape, initial.cursor, stateIndex(initial.state), steps);
+      return search.search(detectionSteps);
+    }
+
+    /**
+     * MacroRun that steps one cell at a time while looking for cycles.
+     */
+    private class CycleSearch extends MacroRun {
+      private long time;
+
+      // Snapshot for pure cycles.
+      private long snapshotTime = -1;
+      private long nextSnapshot = 1;
+      private int snapshotState;
+      private int snapshotCursor;
+      private Tape snapshotTape;
+
+      // Furthest cells the cursor or a 1 have reached.
+      private int lowest;
+      private int highest;
+
+      // Record-breaking step for translated cycles.
+      private long anchorTime = -1;
+      private long nextAnchor = 1;
+      private int anchorDirection;
+      private int anchorState;
+      private int anchorCursor;
+      private Tape anchorTape;
+      // Furthest the cursor has backed away from the anchor's record since the anchor.
+      private int backedUpTo;
+
+      CycleSearch(Tape tape, int cursor, int state, long remaining) {
+        super(tape, cursor, state, remaining);
+
+        this.lowest = Math.min(cursor, tape.lowestOne());
+        this.highest = Math.max(cursor, tape.highestOne());
+      }
+
+      CycleRun search(long detectionSteps) {
+        while (remaining > 0 && time < detectionSteps) {
+          if (time == nextSnapshot) {
+            snapshotTime = time;
+            snapshotState = state;
+            snapshotCursor = cursor;
+            snapshotTape = tape.copy();
+            nextSnapshot *= 2;
+          } else if (snapshotTime >= 0 && state == snapshotState && cursor == snapshotCursor
+              && tape.equals(snapshotTape)) {
+            long period = time - snapshotTime;
+            remaining %= period;
+            run();
+
+            return new CycleRun(names[state], cursor, tape.checksum(), snapshotTime, period, 0);
+          }
+
+          step();
+          time ++;
+
+          backedUpTo = anchorDirection == 1 ? Math.min(backedUpTo, cursor) : Math.max(backedUpTo, cursor);
+
+          int direction = 0;
+          if (cursor > highest) {
+            highest = cursor;
+            direction = 1;
+          } else if (cursor < lowest) {
+            lowest = cursor;
+            direction = -1;
+          }
+
+          if (direction != 0) {
+            CycleRun cycle = recordBroken(direction);
+            if (cycle != null) {
+              return cycle;
+            }
+          }
+        }
+
+        run();
+        return new CycleRun(names[state], cursor, tape.checksum(), -1, 0, 0);
+      }
+
+      /**
+       * Checks the record the cursor just broke against the anchor, re-anchoring on the first record after each
+       * power-of-two step.  Returns the finished run if a translated cycle was found, null otherwise.
+       */
+      private CycleRun recordBroken(int direction) {
+        if (anchorTime >= 0 && direction == anchorDirection && state == anchorState && windowRepeats()) {
+          long period = time - anchorTime;
+          int shift = cursor - anchorCursor;
+
+          // The band the machine backed up over is left behind unchanged by every repetition.
+          int band = direction == 1
+              ? tape.count(backedUpTo, backedUpTo + shift - 1)
+              : tape.count(backedUpTo + shift + 1, backedUpTo);
+
+          long periods = remaining / period;
+          remaining %= period;
+          run();
+
+          return new CycleRun(
+              names[state],
+              cursor + periods * shift,
+              tape.checksum() + periods * band,
+              anchorTime,
+              period,
+              shift);
+        }
+
+        if (time >= nextAnchor) {
+          anchorTime = time;
+          anchorDirection = direction;
+          anchorState = state;
+          anchorCursor = cursor;
+          anchorTape = tape.copy();
+          backedUpTo = cursor;
+          while (nextAnchor <= time) {
+            nextAnchor *= 2;
+          }
+        }
+
+        return null;
+      }
+
+      /**
+       * Returns whether the anchor's tape from the furthest the cursor backed up to through the anchor's record
+       * matches the current tape shifted by the distance between the records.
+       */
+      private boolean windowRepeats() {
+        int shift = cursor - anchorCursor;
+        int from = Math.min(backedUpTo, anchorCursor);
+        int to = Math.max(backedUpTo, anchorCursor);
+
+        for (int cell = from; cell <= to; cell ++) {
+          if (anchorTape.get(cell) != tape.get(cell + shift)) {
+            return false;
+          }
+        }
+
+        return true;
+      }
+    }
+
+    private int stateIndex(char name) {
+      for (int i = 0; i < names.length; i ++) {
+        if (names[i] == name) {
+          return i;
+        }
+      }
+
+      throw new IllegalArgumentException("Unknown state " + name);
+    }
+
+    public static class Builder {
+      private final StringBuilder names = new StringBuilder();
+      private final Map<StateValue, int[]> transitions = new HashMap<>();
+
+      /**
+       * Adds the transition for the given state and current value.
+       *
+       * @param state State the machine is in
+       * @param value Value under the cursor
+       * @param write Value to write
+       * @param move Amount to move the cursor, -1 for left or 1 for right
+       * @param next State to continue with
+       * @return This builder
+       */
+      public Builder add(char state, boolean value, boolean write, int move, char next) {
+        index(state);
+        transitions.put(new StateValue(state, value), new int[]{write ? 1 : 0, move, index(next)});
+        return this;
+      }
+
+      private int index(char state) {
+        int index = names.indexOf(String.valueOf(state));
+        if (index == -1) {
+          names.append(state);
+          index = names.length() - 1;
+        }
+
+        return index;
+      }
+
+      public TransitionTable build() {
+        int numStates = names.length();
+        int[] writes = new int[numStates * 2];
+        int[] moves = new int[numStates * 2];
+        int[] nextStates = new int[numStates * 2];
+
+        for (int i = 0; i < numStates; i ++) {
+          for (int value = 0; value < 2; value ++) {
+            int[] transition = transitions.get(new StateValue(names.charAt(i), value == 1));
+            if (transition == null) {
+              throw new IllegalStateException("Missing transition for state " + names.charAt(i) + " value " + value);
+            }
+
+            writes[i * 2 + value] = transition[0];
+            moves[i * 2 + value] = transition[1];
+            nextStates[i * 2 + value] = transition[2];
+          }
+        }
+
+        return new TransitionTable(names.toString().toCharArray(), writes, moves, nextStates);
+      }
+    }
+  }
+
+  /**
+   * Turing machine blueprint - the machine's transitions, the state it begins in, and how many steps to run
+   * before taking the diagnostic checksum.
+   */
+  public static class Blueprint {
+    private static final Pattern BEGIN = Pattern.compile("^Begin in state (\\w)\\.$");
+    private static final Pattern CHECKSUM =
+        Pattern.compile("^Perform a diagnostic checksum after (\\d+) steps?\\.$");
+    private static final Pattern STATE = Pattern.compile("^In state (\\w):$");
+    private static final Pattern VALUE = Pattern.compile("^If the current value is ([01]):$");
+    private static final Pattern WRITE = Pattern.compile("^- Write the value ([01])\\.$");
+    private static final Pattern MOVE = Pattern.compile("^- Move one slot to the (left|right)\\.$");
+    private static final Pattern NEXT = Pattern.compile("^- Continue with state (\\w)\\.$");
+
+    public final char initialState;
+    public final long steps;
+    public final TransitionTable table;
+
+    public Blueprint(char initialState, long steps, TransitionTable table) {
+      this.initialState = initialState;
+      this.steps = steps;
+      this.table = table;
+    }
+
+    /**
+     * Parses a blueprint in the puzzle's format, ignoring indentation and blank lines.
+     *
+     * @param lines Lines of the blueprint
+     * @return Parsed blueprint
+     */
+    public static Blueprint parse(ImmutableList<String> lines) {
+      ImmutableList<String> trimmed = lines.stream()
+          .map(String::trim)
+          .filter(line -> !line.isEmpty())
+          .collect(ImmutableList.toImmutableList());
+
+      if (trimmed.size() < 2) {
+        throw new IllegalArgumentException("Blueprint is missing its header");
+      }
+
+      char initialState = match(BEGIN, trimmed.get(0)).group(1).charAt(0);
+      long steps = Long.parseLong(match(CHECKSUM, trimmed.get(1)).group(1));
+
+      TransitionTable.Builder table = new TransitionTable.Builder();
+      char state = 0;
+      for (int i = 2; i < trimmed.size(); i ++) {
+        Matcher stateMatcher = STATE.matcher(trimmed.get(i));
+        if (stateMatcher.matches()) {
+          state = stateMatcher.group(1).charAt(0);
+          continue;
+        }
+
+        if (state == 0 || i + 3 >= trimmed.size()) {
+          throw new IllegalArgumentException("Invalid blueprint line '" + trimmed.get(i) + "'");
+        }
+
+        boolean value = match(VALUE, trimmed.get(i)).group(1).equals("1");
+        boolean write = match(WRITE, trimmed.get(i + 1)).group(1).equals("1");
+        int move = match(MOVE, trimmed.get(i + 2)).group(1).equals("left") ? -1 : 1;
+        char next = match(NEXT, trimmed.get(i + 3)).group(1).charAt(0);
+
+        table.add(state, value, write, move, next);
+        i += 3;
+      }
+
+      return new Blueprint(initialState, steps, table.build());
+    }
+
+    private static Matcher match(Pattern pattern, String line) {
+      Matcher matcher = pattern.matcher(line);
+      if (!matcher.matches()) {
+        throw new IllegalArgumentException("Invalid blueprint line '" + line + "'");
+      }
+
+      return matcher;
+    }
+
+    /**
+     * Runs the blueprint on a blank tape from its initial state for its checksum steps.
+     *
+     * @return Machine after the steps
+     */
+    public Machine run() {
+      return table.runMacro(steps, new Machine(new Tape(), 0, initialState));
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    File file = new File(Resources.getResource("day25.txt").getFile());
+    Blueprint blueprint = Blueprint.parse(ImmutableList.copyOf(Files.readLines(file, Charsets.UTF_8)));
+
+    System.out.println("Part 1: " + blueprint.run().tape.checksum());
   }
 }
@@ -0,0 +1,124 @@
+package dev.jh.adventofcode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class AssemblyCompilerTest {
+
+  @Test
+  public void arithmetic() {
+    AssemblyCompiler.Program program = AssemblyCompiler.compile(ImmutableList.of(
+        "set a 5",
+        "add a 100000",
+        "sub a -3",
+        "mul a a",
+        "set b 10000000000",
+        "mod b 7",
+        "mod a c"
+    )).get();
+
+    long[] registers = new long[AssemblyCompiler.NUM_SLOTS];
+    program.run(registers);
+
+    assertThat(registers[0]).isEqualTo(100008L * 100008L);
+    assertThat(registers[1]).isEqualTo(10000000000L % 7);
+  }
+
+  @Test
+  public void loops() {
+    AssemblyCompiler.Program program = AssemblyCompiler.compile(ImmutableList.of(
+        "set i 10",
+        "add a i",
+        "sub i 1",
+        "jnz i -2",
+        "jgz 1 5"
+    )).get();
+
+    long[] registers = new long[AssemblyCompiler.NUM_SLOTS];
+
+    assertThat(program.run(registers)).isEqualTo(9);
+    assertThat(registers[0]).isEqualTo(55);
+    assertThat(registers['i' - 'a']).isEqualTo(0);
+  }
+
+  @Test
+  public void registerOffsetJumps() {
+    AssemblyCompiler.Program program = AssemblyCompiler.compile(ImmutableList.of(
+        "jgz a a",
+        "set b 1",
+        "set c 1",
+        "jgz 1 d"
+    )).get();
+
+    long[] registers = new long[AssemblyCompiler.NUM_SLOTS];
+    registers[0] = 2;
+    registers[3] = -20;
+
+    assertThat(program.run(registers)).isEqualTo(-17);
+    assertThat(registers[1]).isEqualTo(0);
+    assertThat(registers[2]).isEqualTo(1);
+  }
+
+  @Test
+  public void sound() {
+    AssemblyCompiler.Program program = AssemblyCompiler.compile(ImmutableList.of(
+        "rcv a",
+        "set a 4",
+        "snd a",
+        "rcv a",
+        "set a 0"
+    )).get();
+
+    long[] registers = new long[AssemblyCompiler.NUM_SLOTS];
+
+    assertThat(program.run(registers)).isEqualTo(4);
+    assertThat(registers[AssemblyCompiler.PLAYED]).isEqualTo(4);
+    assertThat(registers[AssemblyCompiler.RECOVERED]).isEqualTo(4);
+    assertThat(registers[0]).isEqualTo(4);
+  }
+
+  @Test
+  public void unsupported() {
+    assertThat(AssemblyCompiler.compile(ImmutableList.of("set a 1", "nop a")).isPresent()).isFalse();
+    assertThat(AssemblyCompiler.compile(ImmutableList.of("set 1 a")).isPresent()).isFalse();
+    assertThat(AssemblyCompiler.compile(ImmutableList.of("add a")).isPresent()).isFalse();
+    assertThat(AssemblyCompiler.compile(ImmutableList.of("jgz a")).isPresent()).isFalse();
+    assertThat(AssemblyCompiler.compile(ImmutableList.of("set a")).isPresent()).isFalse();
+  }
+
+  @Test
+  public void tooBigForOneMethod() {
+    // About 8 bytes of bytecode per mul - the first puts the jump out of a branch's reach, the second overflows the
+    // method.
+    ImmutableList.Builder<String> farJump = ImmutableList.builder();
+    farJump.add("jgz 1 4999");
+    ImmutableList.Builder<String> longMethod = ImmutableList.builder();
+    for (int i = 0; i < 10000; i ++) {
+      if (i < 4999) {
+        farJump.add("mul a 1000000007");
+      }
+      longMethod.add("mul a 1000000007");
+    }
+
+    assertThat(AssemblyCompiler.compile(farJump.build()).isPresent()).isFalse();
+    assertThat(AssemblyCompiler.compile(longMethod.build()).isPresent()).isFalse();
+  }
+
+  @Test
+  public void compilesInputs() throws IOException {
+    for (String input : new String[]{"day18.txt", "day23.txt"}) {
+      File file = new File(Resources.getResource(input).getFile());
+      ImmutableList<String> lines = ImmutableList.copyOf(Files.readLines(file, Charsets.UTF_8));
+
+      assertThat(AssemblyCompiler.compile(lines).isPresent()).isTrue();
+    }
+  }
+}
@@ -20,6 +20,22 @@ public class Day17Test {
 
     assertThat(Day17.linkedValueAfter(3, 9, 9)).isEqualTo(5);
     assertThat(Day17.linkedValueAfter(3, 9, 0)).isEqualTo(9);
+
+    assertThat(new Day17.Spinlock(3, 9).valueAfter(9)).isEqualTo(5);
+    assertThat(new Day17.Spinlock(3, 9).valueAfter(0)).isEqualTo(9);
+  }
+
+  @Test
+  public void spinlockMatchesLinked() {
+    for (int step : new int[]{1, 3, 349}) {
+      Day17.Spinlock spinlock = new Day17.Spinlock(step, 2017);
+
+      for (int number : new int[]{0, 1, 100, 2016, 2017}) {
+        assertThat(spinlock.valueAfter(number)).isEqualTo(Day17.linkedValueAfter(step, 2017, number));
+      }
+    }
+
+    assertThat(new Day17.Spinlock(3, 0).valueAfter(0)).isEqualTo(0);
   }
 
   @Test
@@ -75,4 +91,71 @@ public class Day17Test {
   public void positionOfFoun() {
     assertThat(FOUR.positionOf(3)).isEqualTo(2);
   }
+
+  @Test
+  public void insertTimesLarge() {
+    Day17.Buffer buffer = Day17.insertTimes(349, 200000);
+
+    assertThat(buffer.size()).isEqualTo(200001);
+    assertThat(buffer.get(buffer.modPosition(buffer.positionOf(0) + 1)))
+        .isEqualTo(new Day17.Spinlock(349, 200000).valueAfter(0));
+    assertThat(buffer.get(buffer.modPosition(buffer.positionOf(2017) + 1)))
+        .isEqualTo(new Day17.Spinlock(349, 200000).valueAfter(2017));
+  }
+
+  @Test
+  public void insertLeavesOriginalUnchanged() {
+    Day17.Buffer inserted = FOUR.insertAfter(4).step(2).insertAfter(5);
+
+    assertThat(FOUR.values()).containsExactly(0, 2, 3, 1);
+    assertThat(inserted.values()).containsExactly(0, 2, 4, 3, 1, 5);
+    assertThat(inserted.get(5)).isEqualTo(5);
+    assertThat(inserted.positionOf(5)).isEqualTo(5);
+    assertThat(inserted.hashCode()).isEqualTo(new Day17.Buffer(5, new int[]{0, 2, 4, 3, 1, 5}).hashCode());
+  }
+
+  @Test
+  public void positionOfAfterRelabelling() {
+    // Inserting after the newest value every time halves the same gap in labels until it has to be relabelled.
+    Day17.Buffer buffer = new Day17.Buffer();
+    Day17.Buffer halfway = null;
+
+    for (int i = 1; i <= 5000; i ++) {
+      buffer = buffer.insertAfter(i);
+      if (i == 2500) {
+        halfway = buffer;
+      }
+    }
+
+    for (int i = 0; i <= 5000; i ++) {
+      assertThat(buffer.positionOf(i)).isEqualTo(i);
+      assertThat(buffer.get(i)).isEqualTo(i);
+    }
+
+    // Relabelling leaves earlier buffers alone.
+    assertThat(halfway.size()).isEqualTo(2501);
+    assertThat(halfway.positionOf(2500)).isEqualTo(2500);
+    assertThat(halfway.positionOf(2501)).isEqualTo(-1);
+  }
+
+  @Test
+  public void positionOfMatchesScan() {
+    Day17.Buffer buffer = Day17.insertTimes(3, 3000);
+    int[] values = buffer.values();
+
+    for (int i = 0; i < values.length; i ++) {
+      assertThat(buffer.positionOf(values[i])).isEqualTo(i);
+    }
+  }
+
+  @Test
+  public void positionOfDuplicatesFindsFirst() {
+    Day17.Buffer buffer = new Day17.Buffer(3, new int[]{-5, 7, 7, 2}).insertAfter(-5);
+
+    assertThat(buffer.values()).containsExactly(-5, 7, 7, 2, -5);
+    assertThat(buffer.positionOf(-5)).isEqualTo(0);
+    assertThat(buffer.positionOf(7)).isEqualTo(1);
+    assertThat(buffer.positionOf(2)).isEqualTo(3);
+    assertThat(buffer.positionOf(6)).isEqualTo(-1);
+  }
 }
@@ -2,9 +2,15 @@ package dev.jh.adventofcode;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+
 public class Day18Test {
 
   public static final Day18.State SAMPLE_STATE = new Day18.State()
@@ -47,6 +53,176 @@ public class Day18Test {
     assertThat(Day18.runSend(program)).isEqualTo(3);
   }
 
+  @Test
+  public void runMatchesReference() throws IOException {
+    File file = new File(Resources.getResource("day18.txt").getFile());
+    ImmutableList<String> program = ImmutableList.copyOf(Files.readLines(file, Charsets.UTF_8));
+
+    Day18.State expected = Day18.runSoundReference(program);
+    Day18.State actual = Day18.runSound(program);
+
+    assertThat(actual.recoveredFrequency).isEqualTo(expected.recoveredFrequency);
+    assertThat(actual.playedFrequency).isEqualTo(expected.playedFrequency);
+    assertThat(actual.programCounter).isEqualTo(expected.programCounter);
+    for (char register = 'a'; register <= 'z'; register ++) {
+      assertThat(actual.getRegister(register)).isEqualTo(expected.getRegister(register));
+    }
+
+    assertThat(Day18.runSend(program)).isEqualTo(Day18.runSendReference(program));
+  }
+
+  @Test
+  public void runSoundCompiledMatchesMachine() throws IOException {
+    File file = new File(Resources.getResource("day18.txt").getFile());
+    ImmutableList<String> program = ImmutableList.copyOf(Files.readLines(file, Charsets.UTF_8));
+
+    Day18.State expected = Day18.runSound(program);
+    Day18.State actual = Day18.runSoundCompiled(program);
+
+    assertThat(actual.recoveredFrequency).isEqualTo(expected.recoveredFrequency);
+    assertThat(actual.playedFrequency).isEqualTo(expected.playedFrequency);
+    assertThat(actual.programCounter).isEqualTo(expected.programCounter);
+    assertThat(actual.registers).isEqualTo(expected.registers);
+  }
+
+  @Test
+  public void runSendThreadedMatchesCooperative() throws IOException {
+    File file = new File(Resources.getResource("day18.txt").getFile());
+    ImmutableList<String> program = ImmutableList.copyOf(Files.readLines(file, Charsets.UTF_8));
+    int expected = Day18.runSend(program);
+
+    assertThat(Day18.runSendThreaded(program)).isEqualTo(expected);
+    // Tiny channels force values through the overflow queue.
+    assertThat(Day18.runSendThreaded(program, 1)).isEqualTo(expected);
+    assertThat(Day18.runSendThreaded(program, 3)).isEqualTo(expected);
+  }
+
+  @Test
+  public void sendExampleThreaded() {
+    ImmutableList<String> program = ImmutableList.of(
+        "snd 1",
+        "snd 2",
+        "snd p",
+        "rcv a",
+        "rcv b",
+        "rcv c",
+        "rcv d"
+    );
+
+    assertThat(Day18.runSendThreaded(program)).isEqualTo(3);
+  }
+
+  @Test
+  public void clusterPairwiseMatchesRunSend() throws IOException {
+    File file = new File(Resources.getResource("day18.txt").getFile());
+    ImmutableList<String> program = ImmutableList.copyOf(Files.readLines(file, Charsets.UTF_8));
+    int expected = Day18.runSend(program);
+
+    Day18.ClusterResult result = new Day18.DuetCluster(program, 4, Day18.Topology.PAIRWISE, 3).run();
+
+    assertThat(result.sends[1]).isEqualTo(expected);
+    assertThat(result.receives[0]).isEqualTo(result.sends[1]);
+    assertThat(result.deadlocked).isTrue();
+  }
+
+  @Test
+  public void clusterRingIndependentOfWorkers() throws IOException {
+    File file = new File(Resources.getResource("day18.txt").getFile());
+    ImmutableList<String> program = ImmutableList.copyOf(Files.readLines(file, Charsets.UTF_8));
+
+    Day18.ClusterResult oneWorker = new Day18.DuetCluster(program, 5, Day18.Topology.RING, 1).run();
+    Day18.ClusterResult threeWorkers = new Day18.DuetCluster(program, 5, Day18.Topology.RING, 3).run();
+
+    assertThat(threeWorkers.sends).isEqualTo(oneWorker.sends);
+    assertThat(threeWorkers.receives).isEqualTo(oneWorker.receives);
+    assertThat(threeWorkers.instructions).isEqualTo(oneWorker.instructions);
+  }
+
+  @Test
+  public void clusterBroadcast() {
+    ImmutableList<String> program = ImmutableList.of(
+        "snd p",
+        "rcv a",
+        "rcv b"
+    );
+
+    Day18.ClusterResult result = new Day18.DuetCluster(program, 3, Day18.Topology.BROADCAST, 2).run();
+
+    assertThat(result.sends).isEqualTo(new long[]{1, 1, 1});
+    assertThat(result.receives).isEqualTo(new long[]{2, 2, 2});
+    assertThat(result.totalSends()).isEqualTo(3);
+    assertThat(result.deadlocked).isFalse();
+  }
+
+  @Test
+  public void spscChannelOverflowKeepsOrder() {
+    Day18.SpscChannel channel = new Day18.SpscChannel(2);
+
+    for (int i = 0; i < 5; i ++) {
+      channel.add(i);
+    }
+
+    assertThat(channel.remove()).isEqualTo(0);
+    assertThat(channel.remove()).isEqualTo(1);
+    assertThat(channel.isEmpty()).isTrue();
+
+    assertThat(channel.flush()).isFalse();
+    assertThat(channel.remove()).isEqualTo(2);
+    assertThat(channel.remove()).isEqualTo(3);
+
+    channel.add(5);
+    assertThat(channel.flush()).isTrue();
+    assertThat(channel.remove()).isEqualTo(4);
+    assertThat(channel.remove()).isEqualTo(5);
+    assertThat(channel.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void machineBlocksOnReceive() {
+    Day18.CompiledProgram program = Day18.CompiledProgram.compile(ImmutableList.of(
+        "rcv a",
+        "snd a",
+        "jgz 1 -2"
+    ), Day18.Mode.SEND);
+
+    Day18.LongQueue in = new Day18.LongQueue();
+    Day18.LongQueue out = new Day18.LongQueue();
+    Day18.Machine machine = new Day18.Machine(program, in, out).run();
+
+    assertThat(machine.isBlocked()).isTrue();
+    assertThat(machine.getProgramCounter()).isEqualTo(0);
+
+    in.add(5);
+    in.add(-7);
+    machine.run();
+
+    assertThat(machine.isBlocked()).isTrue();
+    assertThat(machine.getSends()).isEqualTo(2);
+    assertThat(out.remove()).isEqualTo(5);
+    assertThat(out.remove()).isEqualTo(-7);
+    assertThat(out.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void longQueueGrows() {
+    Day18.LongQueue queue = new Day18.LongQueue();
+
+    // Wrap the head around before growing so both halves of the ring are copied.
+    for (int i = 0; i < 10; i ++) {
+      queue.add(i);
+      queue.remove();
+    }
+    for (int i = 0; i < 100; i ++) {
+      queue.add(i);
+    }
+
+    assertThat(queue.size()).isEqualTo(100);
+    for (int i = 0; i < 100; i ++) {
+      assertThat(queue.remove()).isEqualTo(i);
+    }
+    assertThat(queue.isEmpty()).isTrue();
+  }
+
   @Test
   public void numberRegisterOrNumber() {
     Day18.RegisterOrNumber number = new Day18.RegisterOrNumber("1");
@@ -1,11 +1,23 @@
 package dev.jh.adventofcode;
 
 import static dev.jh.adventofcode.Day19.Direction.DOWN;
+import static dev.jh.adventofcode.Day19.Direction.LEFT;
+import static dev.jh.adventofcode.Day19.Direction.RIGHT;
+import static dev.jh.adventofcode.Day19.Direction.UP;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
 public class Day19Test {
 
   public static final ImmutableList<String> EXAMPLE =ImmutableList.of(
@@ -27,10 +39,196 @@ public class Day19Test {
     assertThat(Day19.steps(EXAMPLE)).isEqualTo(38);
   }
 
+  @Test
+  public void raggedLines() {
+    ImmutableList<String> ragged = EXAMPLE.stream()
+        .map(line -> line.replaceAll(" +$", ""))
+        .collect(ImmutableList.toImmutableList());
+
+    assertThat(Day19.letters(ragged)).isEqualTo("ABCDEF");
+    assertThat(Day19.steps(ragged)).isEqualTo(38);
+    assertThat(Day19.path(ragged).split("\n")).hasSize(6);
+  }
+
   @Test
   public void findStart() {
     Day19.State expected = new Day19.State(new Day19.Position(0, 5), DOWN);
 
     assertThat(Day19.findStart(Day19.parse(EXAMPLE))).isEqualTo(expected);
   }
+
+  @Test
+  public void compileExample() {
+    assertThat(Day19.compile(Day19.parse(EXAMPLE))).containsExactly(
+        new Day19.Segment(0, 5, DOWN, 6, "A"),
+        new Day19.Segment(5, 6, RIGHT, 3, "B"),
+        new Day19.Segment(4, 8, UP, 4, ""),
+        new Day19.Segment(1, 9, RIGHT, 3, ""),
+        new Day19.Segment(2, 11, DOWN, 4, "C"),
+        new Day19.Segment(5, 12, RIGHT, 3, ""),
+        new Day19.Segment(4, 14, UP, 2, "D"),
+        new Day19.Segment(3, 13, LEFT, 13, "EF")
+    );
+  }
+
+  @Test
+  public void compiledPathExample() {
+    Day19.CompiledPath path = new Day19.CompiledPath(Day19.compile(Day19.parse(EXAMPLE)));
+
+    assertThat(path.letters()).isEqualTo("ABCDEF");
+    assertThat(path.steps()).isEqualTo(38L);
+  }
+
+  @Test
+  public void compileMatchesTraverse() throws IOException {
+    ImmutableList<String> lines = loadInput();
+    char[][] maze = Day19.parse(lines);
+
+    int steps = Day19.traverse(maze, 0, (state, accumulator) -> accumulator + 1);
+    String letters = Day19.traverse(maze, "", (state, accumulator) -> {
+      char letter = state.position.letter(maze);
+      return letter >= 'A' && letter <= 'Z' ? accumulator + letter : accumulator;
+    });
+
+    assertThat(Day19.steps(lines)).isEqualTo(steps);
+    assertThat(Day19.letters(lines)).isEqualTo(letters);
+  }
+
+  @Test
+  public void mappedMazeMatchesLines() throws IOException {
+    ImmutableList<String> lines = loadInput();
+
+    try (Day19.MappedMaze maze = Day19.MappedMaze.open(inputFile().toPath())) {
+      assertThat(maze.rows()).isEqualTo(lines.size());
+      assertThat(Day19.letters(maze)).isEqualTo(Day19.letters(lines));
+      assertThat(Day19.steps(maze)).isEqualTo(Day19.steps(lines));
+    }
+  }
+
+  @Test
+  public void mappedMazeRaggedLines() throws IOException {
+    // Trailing spaces trimmed, Windows line endings, and no newline at the end.
+    String example = "     |\r\n     |  +--+\r\n     A  |  C\r\n F---|----E|--+\r\n     |  |  |  D\r\n     +B-+  +--+";
+    Path path = java.nio.file.Files.createTempFile("day19", ".txt");
+
+    try {
+      java.nio.file.Files.write(path, example.getBytes(StandardCharsets.US_ASCII));
+
+      try (Day19.MappedMaze maze = Day19.MappedMaze.open(path)) {
+        assertThat(maze.rows()).isEqualTo(6);
+        assertThat(maze.width(0)).isEqualTo(6);
+        assertThat(maze.width(5)).isEqualTo(15);
+        assertThat(maze.letter(0, 5)).isEqualTo('|');
+        assertThat(maze.letter(0, 6)).isEqualTo(' ');
+        assertThat(maze.letter(-1, 0)).isEqualTo(' ');
+        assertThat(maze.letter(6, 0)).isEqualTo(' ');
+
+        assertThat(Day19.letters(maze)).isEqualTo("ABCDEF");
+        assertThat(Day19.steps(maze)).isEqualTo(38);
+      }
+    } finally {
+      java.nio.file.Files.delete(path);
+    }
+  }
+
+  @Test
+  public void exploreSinglePath() {
+    assertThat(explore(EXAMPLE)).containsExactly(new Day19.Walk(5, "ABCDEF", 38, false));
+  }
+
+  @Test
+  public void exploreForks() {
+    ImmutableList<String> maze = ImmutableList.of(
+        "   |    |",
+        "   |    |",
+        " +-+-+  C",
+        " |   |  |",
+        " A   B  |",
+        " |   |   "
+    );
+
+    assertThat(explore(maze)).containsExactly(
+        new Day19.Walk(3, "A", 8, false),
+        new Day19.Walk(3, "B", 8, false),
+        new Day19.Walk(8, "C", 5, false)
+    );
+  }
+
+  @Test
+  public void exploreLoopsEnd() {
+    // Each way around the loop either reaches X, leaves through the top, or comes back around to where it started.
+    ImmutableList<String> maze = ImmutableList.of(
+        "  |  ",
+        "+-+-+",
+        "|   |",
+        "+-+-+",
+        "  |  ",
+        "  X  "
+    );
+
+    assertThat(explore(maze)).containsExactly(
+        new Day19.Walk(2, "", 14, true),
+        new Day19.Walk(2, "", 14, true),
+        new Day19.Walk(2, "", 15, false),
+        new Day19.Walk(2, "", 15, false),
+        new Day19.Walk(2, "X", 10, false),
+        new Day19.Walk(2, "X", 10, false)
+    );
+  }
+
+  @Test
+  public void exploreSharedSegmentsAreDeterministic() {
+    // Both branches rejoin above Z, so the segment down to Z is shared by both paths.
+    ImmutableList<String> maze = ImmutableList.of(
+        "   |   ",
+        "   |   ",
+        " +-+-+ ",
+        " |   | ",
+        " A   B ",
+        " |   | ",
+        " +-+-+ ",
+        "   |   ",
+        "   Z   "
+    );
+    ImmutableList<Day19.Walk> walks = explore(maze);
+
+    assertThat(walks).contains(new Day19.Walk(3, "AZ", 13, false), new Day19.Walk(3, "BZ", 13, false));
+    for (int i = 0; i < 200; i ++) {
+      assertThat(explore(maze)).isEqualTo(walks);
+    }
+  }
+
+  @Test
+  public void visitorsMatchCompile() throws IOException {
+    ImmutableList<String> lines = loadInput();
+    Day19.CharMaze maze = new Day19.CharMaze(Day19.parse(lines));
+
+    assertThat(Day19.traverse(maze, new Day19.StepCounter()).steps()).isEqualTo(Day19.steps(lines));
+    assertThat(Day19.traverse(maze, new Day19.LetterCollector()).letters()).isEqualTo(Day19.letters(lines));
+  }
+
+  @Test
+  public void pathBitmapExample() {
+    Day19.CharMaze maze = new Day19.CharMaze(Day19.parse(EXAMPLE));
+    Day19.PathBitmap bitmap = Day19.traverse(maze, new Day19.PathBitmap(maze));
+
+    // The path crosses itself three times on row 3, and each crossing is only counted once.
+    assertThat(bitmap.count()).isEqualTo(35);
+    assertThat(bitmap.contains(0, 5)).isTrue();
+    assertThat(bitmap.contains(3, 5)).isTrue();
+    assertThat(bitmap.contains(0, 0)).isFalse();
+    assertThat(bitmap.contains(-1, 5)).isFalse();
+  }
+
+  private static ImmutableList<Day19.Walk> explore(ImmutableList<String> maze) {
+    return Day19.explore(new Day19.CharMaze(Day19.parse(maze)), ForkJoinPool.commonPool());
+  }
+
+  private static File inputFile() {
+    return new File(Resources.getResource("day19.txt").getFile());
+  }
+
+  private static ImmutableList<String> loadInput() throws IOException {
+    return ImmutableList.copyOf(Files.readLines(inputFile(), Charsets.UTF_8));
+  }
 }
@@ -2,9 +2,19 @@ package dev.jh.adventofcode;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
 public class Day20Test {
 
   private static final Day20.Particle PARTICLE0 = new Day20.Particle(
@@ -14,6 +24,13 @@ public class Day20Test {
       new Day20.Vector3D(-8, 8, -7)
   );
 
+  private static final Day20.Particle PARTICLE3_TICK2 = new Day20.Particle(
+      3,
+      new Day20.Vector3D(5, 0, 0),
+      new Day20.Vector3D(1, 0, 0),
+      new Day20.Vector3D(0, 0, 0)
+  );
+
   @Test
   public void particleFromString() {
     assertThat(Day20.Particle.fromString(0, "p=<-717,-4557,2578>, v=<153,21,30>, a=<-8,8,-7>")).isEqualTo(PARTICLE0);
@@ -62,6 +79,23 @@ public class Day20Test {
     assertThat(Day20.closestParticle(particles)).isEqualTo(2);
   }
 
+  @Test
+  public void closestParticleMatchesReference() throws IOException {
+    ImmutableSet<Day20.Particle> particles = loadInput();
+
+    assertThat(Day20.closestParticle(particles)).isEqualTo(Day20.closestParticleReference(particles));
+  }
+
+  @Test
+  public void asymptoteSignFromLowerTerms() {
+    // No acceleration on x, so x's sign comes from velocity, then from position when velocity is zero too.
+    Day20.Asymptote asymptote = Day20.Asymptote.of(Day20.Particle.fromString(0, "p=<5,-3,2>, v=<-1,0,0>, a=<0,0,0>"));
+
+    assertThat(asymptote.a2).isEqualTo(0L);
+    assertThat(asymptote.b2).isEqualTo(2L);
+    assertThat(asymptote.c2).isEqualTo(-10L + 6 + 4);
+  }
+
   @Test
   public void afterCollisions() {
     ImmutableSet<Day20.Particle> particles = ImmutableSet.of(
@@ -73,4 +107,153 @@ public class Day20Test {
 
     assertThat(Day20.afterCollisions(particles)).isEqualTo(1);
   }
+
+  @Test
+  public void afterCollisionsMatchesReference() throws IOException {
+    ImmutableSet<Day20.Particle> particles = loadInput();
+
+    assertThat(Day20.afterCollisions(particles)).isEqualTo(Day20.afterCollisionsReference(particles));
+  }
+
+  @Test
+  public void particleSystemMatchesCollisions() throws IOException {
+    ImmutableSet<Day20.Particle> particles = loadInput();
+
+    assertThat(Day20.afterCollisionsSimulated(particles, 10000)).isEqualTo(Day20.afterCollisions(particles));
+  }
+
+  @Test
+  public void particleSystemRemovesCollisions() {
+    ImmutableSet<Day20.Particle> particles = ImmutableSet.of(
+        Day20.Particle.fromString(0, "p=<-6,0,0>, v=<3,0,0>, a=<0,0,0>"),
+        Day20.Particle.fromString(1, "p=<-4,0,0>, v=<2,0,0>, a=<0,0,0>"),
+        Day20.Particle.fromString(2, "p=<-2,0,0>, v=<1,0,0>, a=<0,0,0>"),
+        Day20.Particle.fromString(3, "p=<3,0,0>, v=<1,0,0>, a=<0,0,0>")
+    );
+    Day20.ParticleSystem system = new Day20.ParticleSystem(particles);
+
+    for (int i = 0; i < 2; i ++) {
+      assertThat(system.removeCollisions()).isEqualTo(0);
+      system.tick();
+    }
+
+    // 0, 1, and 2 meet at the origin, leaving 3 - swapped into the first slot - after two ticks of its own.
+    assertThat(system.removeCollisions()).isEqualTo(3);
+    assertThat(system.size()).isEqualTo(1);
+    assertThat(system.get(0)).isEqualTo(PARTICLE3_TICK2);
+  }
+
+  @Test
+  public void spatialIndexMatchesBruteForce() throws IOException {
+    ImmutableSet<Day20.Particle> particles = loadInput();
+    Day20.ParticleSystem system = new Day20.ParticleSystem(particles);
+    Day20.SpatialIndex index = new Day20.SpatialIndex(256, particles.size());
+    ForkJoinPool pool = new ForkJoinPool(4);
+
+    try {
+      index.rebuild(system, pool);
+
+      for (int tick = 0; tick < 40; tick ++) {
+        // Same-position queries find exactly the particles removeCollisions is about to remove.
+        Set<Integer> colliding = new HashSet<>();
+        for (int i = 0; i < system.size(); i ++) {
+          int id = system.get(i).id;
+          index.forEachAtPosition(id, other -> colliding.add(id));
+        }
+
+        assertThat(system.removeCollisions()).isEqualTo(colliding.size());
+
+        system.tick();
+        index.update(system);
+        assertThat(index.countPairsWithin(300)).isEqualTo(bruteForcePairsWithin(system, 300));
+      }
+
+      index.rebuild(system, pool);
+      assertThat(index.countPairsWithin(1000)).isEqualTo(bruteForcePairsWithin(system, 1000));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void spatialIndexUpdateJustUnderPowerOfTwo() {
+    // Every particle changes cell every tick, and the count fills a power-of-two table to just under the limit.
+    int count = (1 << 14) - 2;
+    ImmutableSet.Builder<Day20.Particle> builder = ImmutableSet.builder();
+    for (int i = 0; i < count; i ++) {
+      builder.add(Day20.Particle.fromString(i, "p=<" + i * 1000 + ",0,0>, v=<0,1000,0>, a=<0,0,0>"));
+    }
+
+    Day20.ParticleSystem system = new Day20.ParticleSystem(builder.build());
+    Day20.SpatialIndex index = new Day20.SpatialIndex(1000, count);
+    index.update(system);
+
+    for (int tick = 0; tick < 20; tick ++) {
+      system.tick();
+      index.update(system);
+    }
+
+    assertThat(index.countPairsWithin(999)).isEqualTo(0L);
+    assertThat(index.countPairsWithin(1000)).isEqualTo(count - 1L);
+  }
+
+  private static long bruteForcePairsWithin(Day20.ParticleSystem system, long distance) {
+    long pairs = 0;
+    for (int i = 0; i < system.size(); i ++) {
+      for (int j = i + 1; j < system.size(); j ++) {
+        if (system.get(i).position.distance(system.get(j).position) <= distance) {
+          pairs ++;
+        }
+      }
+    }
+
+    return pairs;
+  }
+
+  @Test
+  public void firstCollision() {
+    Day20.Particle still = Day20.Particle.fromString(0, "p=<0,0,0>, v=<0,0,0>, a=<0,0,0>");
+
+    // Positions 6, 5, 3, 0 - reaches the origin at tick 3.
+    assertThat(Day20.firstCollision(still, Day20.Particle.fromString(1, "p=<6,0,0>, v=<0,0,0>, a=<-1,0,0>")))
+        .isEqualTo(3L);
+    // Passes through y = 0 at tick 3 without x ever being 0.
+    assertThat(Day20.firstCollision(still, Day20.Particle.fromString(2, "p=<1,6,0>, v=<0,0,0>, a=<0,-1,0>")))
+        .isEqualTo(-1L);
+    // Same trajectory from the start.
+    assertThat(Day20.firstCollision(still, Day20.Particle.fromString(3, "p=<0,0,0>, v=<0,0,0>, a=<0,0,0>")))
+        .isEqualTo(0L);
+    // Only ever meets at a negative tick.
+    assertThat(Day20.firstCollision(still, Day20.Particle.fromString(4, "p=<2,0,0>, v=<1,0,0>, a=<0,0,0>")))
+        .isEqualTo(-1L);
+  }
+
+  @Test
+  public void afterCollisionsSameTick() {
+    // Particles 0 and 1 meet at tick 1 while 1 and 2 meet at tick 2 - 2 survives since 1 was already destroyed.
+    // 3, 4 and 5 all meet at the origin at tick 2.
+    ImmutableSet<Day20.Particle> particles = ImmutableSet.of(
+        Day20.Particle.fromString(0, "p=<-1,10,0>, v=<1,0,0>, a=<0,0,0>"),
+        Day20.Particle.fromString(1, "p=<1,10,0>, v=<-1,0,0>, a=<0,0,0>"),
+        Day20.Particle.fromString(2, "p=<-3,10,0>, v=<1,0,0>, a=<0,0,0>"),
+        Day20.Particle.fromString(3, "p=<-2,0,0>, v=<1,0,0>, a=<0,0,0>"),
+        Day20.Particle.fromString(4, "p=<2,0,0>, v=<-1,0,0>, a=<0,0,0>"),
+        Day20.Particle.fromString(5, "p=<0,-2,0>, v=<0,1,0>, a=<0,0,0>")
+    );
+
+    assertThat(Day20.afterCollisions(particles)).isEqualTo(1);
+    assertThat(Day20.afterCollisionsReference(particles)).isEqualTo(1);
+  }
+
+  private static ImmutableSet<Day20.Particle> loadInput() throws IOException {
+    File file = new File(Resources.getResource("day20.txt").getFile());
+    ImmutableList<String> lines = ImmutableList.copyOf(Files.readLines(file, Charsets.UTF_8));
+
+    ImmutableSet.Builder<Day20.Particle> particles = ImmutableSet.builder();
+    for (int i = 0; i < lines.size(); i ++) {
+      particles.add(Day20.Particle.fromString(i, lines.get(i)));
+    }
+
+    return particles.build();
+  }
 }
@@ -2,9 +2,17 @@ package dev.jh.adventofcode;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+
 public class Day21Test {
 
   @Test
@@ -77,4 +85,79 @@ public class Day21Test {
 
     assertThat(Day21.pixelsOn(rules, 2)).isEqualTo(12);
   }
+
+  @Test
+  public void ruleBookSymmetries() {
+    Day21.RuleBook ruleBook = new Day21.RuleBook(ImmutableList.of(
+        Day21.Rule.fromString("../.# => ##./#../..."),
+        Day21.Rule.fromString(".#./..#/### => #..#/..../..../#..#")
+    ));
+
+    // ../.# in each of its four rotations.
+    for (int pattern : new int[]{0b1000, 0b0100, 0b0010, 0b0001}) {
+      assertThat(ruleBook.replacement(2, pattern)).isEqualTo(0b000001011);
+    }
+
+    // .#./..#/###, its flip, and a rotation.
+    assertThat(ruleBook.replacement(3, 0b111100010)).isEqualTo(0b1001000000001001);
+    assertThat(ruleBook.replacement(3, 0b111001010)).isEqualTo(0b1001000000001001);
+    assertThat(ruleBook.replacement(3, 0b011101001)).isEqualTo(0b1001000000001001);
+  }
+
+  @Test
+  public void bitGridMatchesReference() throws IOException {
+    File file = new File(Resources.getResource("day21.txt").getFile());
+    ImmutableList<Day21.Rule> rules = Files.readLines(file, Charsets.UTF_8).stream()
+        .map(Day21.Rule::fromString)
+        .collect(ImmutableList.toImmutableList());
+
+    for (int iterations = 0; iterations <= 8; iterations ++) {
+      assertThat(Day21.pixelsOn(rules, iterations)).isEqualTo(Day21.pixelsOnReference(rules, iterations));
+    }
+  }
+
+  @Test
+  public void blockCounterMatchesGrid() throws IOException {
+    File file = new File(Resources.getResource("day21.txt").getFile());
+    ImmutableList<Day21.Rule> rules = Files.readLines(file, Charsets.UTF_8).stream()
+        .map(Day21.Rule::fromString)
+        .collect(ImmutableList.toImmutableList());
+    Day21.BlockCounter counter = new Day21.BlockCounter(new Day21.RuleBook(rules));
+
+    for (int iterations = 0; iterations <= 18; iterations ++) {
+      assertThat(counter.pixelsOn(iterations)).isEqualTo(BigInteger.valueOf(Day21.pixelsOn(rules, iterations)));
+    }
+
+    assertThat(counter.pixelsOn(100).bitLength()).isGreaterThan(64);
+  }
+
+  @Test
+  public void expandParallelMatchesExpand() throws IOException {
+    File file = new File(Resources.getResource("day21.txt").getFile());
+    ImmutableList<Day21.Rule> rules = Files.readLines(file, Charsets.UTF_8).stream()
+        .map(Day21.Rule::fromString)
+        .collect(ImmutableList.toImmutableList());
+    Day21.RuleBook ruleBook = new Day21.RuleBook(rules);
+    ForkJoinPool pool = new ForkJoinPool(4);
+
+    try {
+      Day21.BitGrid grid = Day21.BitGrid.fromChars(new char[][]{
+          new char[]{'.', '#', '.'},
+          new char[]{'.', '.', '#'},
+          new char[]{'#', '#', '#'}
+      });
+
+      for (int iteration = 0; iteration < 14; iteration ++) {
+        Day21.BitGrid parallel = grid.expandParallel(ruleBook, pool);
+        grid = grid.expand(ruleBook);
+
+        assertThat(parallel).isEqualTo(grid);
+        assertThat(parallel.pixelsOnParallel(pool)).isEqualTo(grid.pixelsOn());
+      }
+
+      assertThat(Day21.pixelsOnParallel(rules, 18, pool)).isEqualTo(Day21.pixelsOn(rules, 18));
+    } finally {
+      pool.shutdown();
+    }
+  }
 }
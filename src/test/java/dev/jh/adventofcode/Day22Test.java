@@ -2,9 +2,15 @@ package dev.jh.adventofcode;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+
 public class Day22Test {
 
   @Test
@@ -51,6 +57,32 @@ public class Day22Test {
     assertThat(Day22.countInfections(Day22.Grid.fromLines(lines), 10000)).isEqualTo(5587);
   }
 
+  @Test
+  public void simpleEngineMatchesStates() {
+    ImmutableList<String> lines = ImmutableList.of(
+        "..#",
+        "#..",
+        "..."
+    );
+
+    Day22.DenseEngine engine = Day22.DenseEngine.simple(Day22.Grid.fromLines(lines));
+    Day22.State state = new Day22.State(Day22.Grid.fromLines(lines), Day22.Virus.INITIAL);
+
+    for (int i = 0; i < 200; i ++) {
+      assertThat(engine.isInfected()).isEqualTo(state.isInfected());
+
+      engine.burst(1);
+      state = state.step();
+
+      Day22.State snapshot = engine.toState();
+      assertThat(snapshot.grid.infectedNodes).isEqualTo(state.grid.infectedNodes);
+      assertThat(snapshot.virus).isEqualTo(state.virus);
+    }
+
+    assertThat(Day22.countInfections(Day22.Grid.fromLines(lines), 70)).isEqualTo(41);
+    assertThat(Day22.countInfectionsReference(Day22.Grid.fromLines(lines), 10000)).isEqualTo(5587);
+  }
+
   @Test
   public void evolvedExample100() {
     ImmutableList<String> lines = ImmutableList.of(
@@ -72,4 +104,29 @@ public class Day22Test {
 
     assertThat(Day22.countEvolvedInfections(Day22.Grid.fromLines(lines), 10000000)).isEqualTo(2511944);
   }
+
+  @Test
+  public void denseEngineMatchesReference() throws IOException {
+    File file = new File(Resources.getResource("day22.txt").getFile());
+    Day22.Grid grid = Day22.Grid.fromLines(ImmutableList.copyOf(Files.readLines(file, Charsets.UTF_8)));
+
+    for (int bursts : new int[]{0, 1, 100, 10000, 200000}) {
+      assertThat(Day22.countEvolvedInfections(grid, bursts))
+          .isEqualTo(Day22.countEvolvedInfectionsReference(grid, bursts));
+    }
+  }
+
+  @Test
+  public void denseEngineGrows() {
+    Day22.DenseEngine engine = Day22.DenseEngine.evolved(Day22.Grid.fromLines(ImmutableList.of("...", "...", "...")));
+    Day22.EvolvedState reference = new Day22.EvolvedState();
+
+    // A clean grid sends the virus in a widening spiral, so it walks off the initial 64x64 array.
+    for (int i = 0; i < 100000; i ++) {
+      engine.burst(1);
+      reference.stepModify();
+    }
+
+    assertThat(engine.getVirus()).isEqualTo(reference.getVirus());
+  }
 }
@@ -0,0 +1,201 @@
+package dev.jh.adventofcode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class Day23Test {
+
+  /** day23.txt with a = 1, scaled down to check b = 23, 40, 57. */
+  private static final ImmutableList<String> SMALL_PROGRAM = ImmutableList.of(
+      "set b 20",
+      "set c b",
+      "jnz a 2",
+      "jnz 1 5",
+      "mul b 1",
+      "sub b -3",
+      "set c b",
+      "sub c -34",
+      "set f 1",
+      "set d 2",
+      "set e 2",
+      "set g d",
+      "mul g e",
+      "sub g b",
+      "jnz g 2",
+      "set f 0",
+      "sub e -1",
+      "set g e",
+      "sub g b",
+      "jnz g -8",
+      "sub d -1",
+      "set g d",
+      "sub g b",
+      "jnz g -13",
+      "jnz f 2",
+      "sub h -1",
+      "set g b",
+      "sub g c",
+      "jnz g 2",
+      "jnz 1 3",
+      "sub b -17",
+      "jnz 1 -23"
+  );
+
+  @Test
+  public void optimizeReplacesLoops() {
+    ImmutableList<Day23.Instruction> program = Day23.parseProgram(SMALL_PROGRAM);
+    ImmutableList<Day23.Instruction> optimized = Day23.optimize(program);
+
+    assertThat(optimized.size()).isEqualTo(program.size());
+    assertThat(optimized.get(10)).isInstanceOf(Day23.NestedDivisibilityScanInstruction.class);
+    assertThat(optimized.get(11)).isInstanceOf(Day23.DivisibilityScanInstruction.class);
+  }
+
+  @Test
+  public void optimizedMatchesRaw() {
+    ImmutableList<Day23.Instruction> program = Day23.parseProgram(SMALL_PROGRAM);
+
+    for (int a = 0; a <= 1; a ++) {
+      Day23.State initial = new Day23.State().setRegister('a', a);
+      Day23.State expected = Day23.run(program, initial);
+      Day23.State actual = Day23.run(Day23.optimize(program), initial);
+
+      assertThat(actual.programCounter).isEqualTo(expected.programCounter);
+      for (char register = 'a'; register <= 'h'; register ++) {
+        assertThat(actual.getRegister(register)).isEqualTo(expected.getRegister(register));
+      }
+    }
+  }
+
+  @Test
+  public void optimizedFallsBackOutsideClosedForm() {
+    // e starts past b, so the loop only ends once e wraps around - the scan has to run the loop itself.
+    ImmutableList<Day23.Instruction> program = Day23.parseProgram(ImmutableList.of(
+        "set b 6",
+        "set d 2",
+        "set e 7",
+        "set g d",
+        "mul g e",
+        "sub g b",
+        "jnz g 2",
+        "set f 0",
+        "sub e -1",
+        "set g e",
+        "sub g b",
+        "jnz g -8"
+    ));
+    ImmutableList<Day23.Instruction> optimized = Day23.optimize(program);
+
+    assertThat(optimized.get(3)).isInstanceOf(Day23.DivisibilityScanInstruction.class);
+
+    Day23.State expected = new Day23.State();
+    Day23.State actual = new Day23.State();
+    for (int i = 0; i < 20; i ++) {
+      expected = program.get(expected.programCounter).apply(expected);
+      actual = optimized.get(actual.programCounter).apply(actual);
+    }
+
+    assertThat(actual.programCounter).isEqualTo(expected.programCounter);
+    for (char register = 'a'; register <= 'h'; register ++) {
+      assertThat(actual.getRegister(register)).isEqualTo(expected.getRegister(register));
+    }
+  }
+
+  @Test
+  public void compiledMatchesRaw() throws IOException {
+    File file = new File(Resources.getResource("day23.txt").getFile());
+    ImmutableList<String> input = ImmutableList.copyOf(Files.readLines(file, Charsets.UTF_8));
+
+    for (ImmutableList<String> lines : ImmutableList.of(SMALL_PROGRAM, input)) {
+      for (int a = 0; a <= 1; a ++) {
+        if (lines == input && a == 1) {
+          continue; // Takes hours, even compiled.
+        }
+
+        Day23.State initial = new Day23.State().setRegister('a', a);
+        Day23.State expected = Day23.run(Day23.parseProgram(lines), initial);
+        Day23.State actual = Day23.runCompiled(lines, initial);
+
+        assertThat(actual.programCounter).isEqualTo(expected.programCounter);
+        for (char register = 'a'; register <= 'h'; register ++) {
+          assertThat(actual.getRegister(register)).isEqualTo(expected.getRegister(register));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void profileCountsMatchRun() throws IOException {
+    File file = new File(Resources.getResource("day23.txt").getFile());
+    ImmutableList<Day23.Instruction> program = Day23.parseProgram(
+        ImmutableList.copyOf(Files.readLines(file, Charsets.UTF_8)));
+
+    Day23.Profile profile = Day23.profile(program, new Day23.State(), Long.MAX_VALUE);
+
+    assertThat(profile.count(Day23.MulInstruction.class)).isEqualTo(Day23.runCountMul(program));
+    assertThat(profile.getFinalState().getRegister('h')).isEqualTo(Day23.run(program, new Day23.State()).getRegister('h'));
+  }
+
+  @Test
+  public void profileReport() {
+    ImmutableList<Day23.Instruction> program = Day23.parseProgram(ImmutableList.of(
+        "set a 3",
+        "set b 4",
+        "sub b 1",
+        "jnz b -1",
+        "sub a 1",
+        "jnz a -4"
+    ));
+
+    Day23.Profile profile = Day23.profile(program, new Day23.State(), Long.MAX_VALUE);
+
+    assertThat(profile.getExecutions(2)).isEqualTo(12);
+    assertThat(profile.getTaken(3)).isEqualTo(9);
+    assertThat(profile.getNotTaken(3)).isEqualTo(3);
+    assertThat(profile.toText()).isEqualTo(String.format(
+        "line           count  instruction%n"
+            + "   0               1  set a 3%n"
+            + "   1               3  set b 4%n"
+            + "   2              12  sub b 1%n"
+            + "   3              12  jnz b -1%n"
+            + "   4               3  sub a 1%n"
+            + "   5               3  jnz a -4%n"
+            + "%n"
+            + " jnz           taken       not taken%n"
+            + "   3               9               3%n"
+            + "   5               2               1%n"
+            + "%n"
+            + "from   to         entries      iterations     trips/entry%n"
+            + "   3    2               3              12             4.0%n"
+            + "   5    1               1               3             3.0%n"));
+    assertThat(profile.toJson()).isEqualTo("{\"lines\":["
+        + "{\"line\":0,\"count\":1,\"instruction\":\"set a 3\"},"
+        + "{\"line\":1,\"count\":3,\"instruction\":\"set b 4\"},"
+        + "{\"line\":2,\"count\":12,\"instruction\":\"sub b 1\"},"
+        + "{\"line\":3,\"count\":12,\"instruction\":\"jnz b -1\"},"
+        + "{\"line\":4,\"count\":3,\"instruction\":\"sub a 1\"},"
+        + "{\"line\":5,\"count\":3,\"instruction\":\"jnz a -4\"}],"
+        + "\"branches\":[{\"line\":3,\"taken\":9,\"notTaken\":3},{\"line\":5,\"taken\":2,\"notTaken\":1}],"
+        + "\"loops\":[{\"from\":3,\"to\":2,\"entries\":3,\"iterations\":12},"
+        + "{\"from\":5,\"to\":1,\"entries\":1,\"iterations\":3}]}");
+  }
+
+  @Test
+  public void optimizedInput() throws IOException {
+    File file = new File(Resources.getResource("day23.txt").getFile());
+    ImmutableList<Day23.Instruction> program = Day23.parseProgram(
+        ImmutableList.copyOf(Files.readLines(file, Charsets.UTF_8)));
+
+    Day23.State state = Day23.run(Day23.optimize(program), new Day23.State().setRegister('a', 1));
+
+    assertThat(state.getRegister('h')).isEqualTo(Day23.runOptimized());
+  }
+}
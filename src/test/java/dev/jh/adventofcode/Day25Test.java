@@ -1,8 +1,15 @@
 package dev.jh.adventofcode;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
 import java.util.function.Function;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -89,4 +96,221 @@ public class Day25Test {
 
     assertThat(onlyOn).isEqualTo(full);
   }
+
+  @Test
+  public void transitionTable() {
+    Day25.TransitionTable table = new Day25.TransitionTable.Builder()
+        .add('a', false, true, 1, 'b')
+        .add('a', true, false, -1, 'b')
+        .add('b', false, true, -1, 'a')
+        .add('b', true, true, 1, 'a')
+        .build();
+
+    Day25.Machine machine = table.run(6, new Day25.Machine(new Day25.Tape(), 0, 'a'));
+    assertThat(machine.tape.checksum()).isEqualTo(3);
+    assertThat(machine.cursor).isEqualTo(0);
+    assertThat(machine.state).isEqualTo('a');
+    assertThat(machine.tape).isEqualTo(new Day25.Tape()
+        .write(-2, true)
+        .write(-1, true)
+        .write(1, true)
+    );
+  }
+
+  @Test
+  public void tapeGrowsBothWays() {
+    Day25.Tape tape = new Day25.Tape()
+        .write(-1000, true)
+        .write(1000, true)
+        .write(63, true)
+        .write(-64, true);
+
+    assertThat(tape.get(-1000)).isTrue();
+    assertThat(tape.get(1000)).isTrue();
+    assertThat(tape.get(999)).isFalse();
+    assertThat(tape.get(100000)).isFalse();
+    assertThat(tape.checksum()).isEqualTo(4);
+    assertThat(tape).isEqualTo(new Day25.Tape().write(1000, true).write(-64, true).write(63, true).write(-1000, true));
+    assertThat(tape.hashCode())
+        .isEqualTo(new Day25.Tape().write(1000, true).write(-64, true).write(63, true).write(-1000, true).hashCode());
+  }
+
+  @Test
+  public void parseExample() {
+    Day25.Blueprint blueprint = Day25.Blueprint.parse(ImmutableList.of(
+        "Begin in state A.",
+        "Perform a diagnostic checksum after 6 steps.",
+        "",
+        "In state A:",
+        "  If the current value is 0:",
+        "    - Write the value 1.",
+        "    - Move one slot to the right.",
+        "    - Continue with state B.",
+        "  If the current value is 1:",
+        "    - Write the value 0.",
+        "    - Move one slot to the left.",
+        "    - Continue with state B.",
+        "",
+        "In state B:",
+        "  If the current value is 0:",
+        "    - Write the value 1.",
+        "    - Move one slot to the left.",
+        "    - Continue with state A.",
+        "  If the current value is 1:",
+        "    - Write the value 1.",
+        "    - Move one slot to the right.",
+        "    - Continue with state A."
+    ));
+
+    assertThat(blueprint.initialState).isEqualTo('A');
+    assertThat(blueprint.steps).isEqualTo(6L);
+
+    Day25.Machine machine = blueprint.run();
+    assertThat(machine.tape.checksum()).isEqualTo(3);
+    assertThat(machine.state).isEqualTo('A');
+  }
+
+  @Test
+  public void parseInput() throws IOException {
+    Day25.Blueprint blueprint = loadBlueprint();
+
+    assertThat(blueprint.initialState).isEqualTo('A');
+    assertThat(blueprint.steps).isEqualTo(12425180L);
+    assertThat(blueprint.run().tape.checksum()).isEqualTo(3099);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parseInvalid() {
+    Day25.Blueprint.parse(ImmutableList.of(
+        "Begin in state A.",
+        "Perform a diagnostic checksum after 6 steps.",
+        "In state A:",
+        "  If the current value is 0:",
+        "    - Write the value 2.",
+        "    - Move one slot to the right.",
+        "    - Continue with state A."
+    ));
+  }
+
+  @Test
+  public void runMacroMatchesRun() {
+    Random random = new Random(25);
+
+    for (int i = 0; i < 300; i ++) {
+      Day25.TransitionTable table = randomTable(random, 4);
+
+      long steps = random.nextInt(20000);
+      Day25.Machine expected = table.run(steps, new Day25.Machine(new Day25.Tape(), 0, 'A'));
+      Day25.Machine actual = table.runMacro(steps, new Day25.Machine(new Day25.Tape(), 0, 'A'));
+
+      assertThat(actual.tape).isEqualTo(expected.tape);
+      assertThat(actual.cursor).isEqualTo(expected.cursor);
+      assertThat(actual.state).isEqualTo(expected.state);
+    }
+  }
+
+  @Test
+  public void runMacroInput() throws IOException {
+    Day25.Blueprint blueprint = loadBlueprint();
+
+    Day25.Machine machine = blueprint.table.runMacro(blueprint.steps, new Day25.Machine(new Day25.Tape(), 0, 'A'));
+    assertThat(machine.tape.checksum()).isEqualTo(3099);
+
+    Day25.Machine expected = blueprint.table.run(1234567, new Day25.Machine(new Day25.Tape(), 5, 'C'));
+    Day25.Machine actual = blueprint.table.runMacro(1234567, new Day25.Machine(new Day25.Tape(), 5, 'C'));
+    assertThat(actual.tape).isEqualTo(expected.tape);
+    assertThat(actual.cursor).isEqualTo(expected.cursor);
+    assertThat(actual.state).isEqualTo(expected.state);
+  }
+
+  @Test
+  public void translatedCycle() {
+    // Sweeps right forever, writing a 1 on every other cell.
+    Day25.TransitionTable table = new Day25.TransitionTable.Builder()
+        .add('A', false, true, 1, 'B')
+        .add('A', true, true, -1, 'A')
+        .add('B', false, false, 1, 'A')
+        .add('B', true, true, 1, 'A')
+        .build();
+
+    long steps = 1_000_000_000_001L;
+    Day25.CycleRun run = table.runDetectingCycles(steps, new Day25.Machine(new Day25.Tape(), 0, 'A'), 1000);
+
+    assertThat(run.foundCycle()).isTrue();
+    assertThat(run.shift).isEqualTo(2L);
+    assertThat(run.cursor).isEqualTo(steps);
+    assertThat(run.checksum).isEqualTo((steps + 1) / 2);
+    assertThat(run.state).isEqualTo('B');
+  }
+
+  @Test
+  public void pureCycle() {
+    Day25.TransitionTable table = new Day25.TransitionTable.Builder()
+        .add('A', false, true, 1, 'B')
+        .add('A', true, false, 1, 'B')
+        .add('B', false, false, -1, 'A')
+        .add('B', true, true, -1, 'A')
+        .build();
+
+    Day25.CycleRun run = table.runDetectingCycles(1_000_000_000_003L, new Day25.Machine(new Day25.Tape(), 0, 'A'), 1000);
+    Day25.Machine expected = table.run(3, new Day25.Machine(new Day25.Tape(), 0, 'A'));
+
+    assertThat(run.foundCycle()).isTrue();
+    assertThat(run.shift).isEqualTo(0L);
+    assertThat(run.period).isEqualTo(4L);
+    assertThat(run.cursor).isEqualTo((long) expected.cursor);
+    assertThat(run.checksum).isEqualTo((long) expected.tape.checksum());
+    assertThat(run.state).isEqualTo(expected.state);
+  }
+
+  @Test
+  public void runDetectingCyclesMatchesRun() throws IOException {
+    Random random = new Random(14);
+
+    for (int i = 0; i < 300; i ++) {
+      Day25.TransitionTable table = randomTable(random, 5);
+
+      long steps = random.nextInt(100000);
+      Day25.Machine expected = table.run(steps, new Day25.Machine(new Day25.Tape(), 0, 'A'));
+      Day25.CycleRun actual = table.runDetectingCycles(steps, new Day25.Machine(new Day25.Tape(), 0, 'A'), 10000);
+
+      assertThat(actual.checksum).isEqualTo((long) expected.tape.checksum());
+      assertThat(actual.cursor).isEqualTo((long) expected.cursor);
+      assertThat(actual.state).isEqualTo(expected.state);
+    }
+
+    // The puzzle's machine never cycles, so it falls back to running every step.
+    Day25.Blueprint blueprint = loadBlueprint();
+    Day25.CycleRun run = blueprint.table.runDetectingCycles(
+        blueprint.steps, new Day25.Machine(new Day25.Tape(), 0, 'A'), 100000);
+
+    assertThat(run.foundCycle()).isFalse();
+    assertThat(run.checksum).isEqualTo(3099L);
+  }
+
+  /**
+   * Builds a table with between 1 and maxStates states, each with random transitions.
+   */
+  private static Day25.TransitionTable randomTable(Random random, int maxStates) {
+    int numStates = 1 + random.nextInt(maxStates);
+    Day25.TransitionTable.Builder builder = new Day25.TransitionTable.Builder();
+
+    for (int state = 0; state < numStates; state ++) {
+      for (boolean value : new boolean[]{false, true}) {
+        builder.add(
+            (char) ('A' + state),
+            value,
+            random.nextBoolean(),
+            random.nextBoolean() ? 1 : -1,
+            (char) ('A' + random.nextInt(numStates)));
+      }
+    }
+
+    return builder.build();
+  }
+
+  private static Day25.Blueprint loadBlueprint() throws IOException {
+    File file = new File(Resources.getResource("day25.txt").getFile());
+    return Day25.Blueprint.parse(ImmutableList.copyOf(Files.readLines(file, Charsets.UTF_8)));
+  }
 }
\ No newline at end of file